@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import com.haulmont.uberjar.SyntheticUberJar.LoaderMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to load every class of the synthetic application through a fresh Web class loader, so that app classes are
+ * defined by the Web loader and shared classes by its Shared parent. The contended variant loads the same classes
+ * from several threads at once, as contexts starting in parallel do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassLoadingBenchmark {
+    protected static final int SHARED_CLASSES = 1000;
+    protected static final int APP_CLASSES = 1000;
+
+    @Param({"PLAIN", "INDEXED", "MAPPED"})
+    public LoaderMode loaderMode;
+
+    @Param({"4"})
+    public int threads;
+
+    protected SyntheticUberJar uberJar;
+    protected ExecutorService executor;
+    protected String[] classNames;
+    protected ClassLoader classLoader;
+
+    @Setup(Level.Trial)
+    public void createJar() throws IOException {
+        uberJar = SyntheticUberJar.create(SHARED_CLASSES, APP_CLASSES);
+        executor = Executors.newFixedThreadPool(threads);
+        classNames = new String[SHARED_CLASSES + APP_CLASSES];
+        for (int i = 0; i < APP_CLASSES; i++) {
+            classNames[i] = SyntheticUberJar.appClassName(i);
+        }
+        for (int i = 0; i < SHARED_CLASSES; i++) {
+            classNames[APP_CLASSES + i] = SyntheticUberJar.sharedClassName(i);
+        }
+    }
+
+    // each invocation takes milliseconds, so per-invocation setup does not distort the measurement
+    @Setup(Level.Invocation)
+    public void createClassLoader() {
+        classLoader = uberJar.createWebClassLoader(loaderMode);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJar() throws IOException {
+        executor.shutdownNow();
+        uberJar.close();
+    }
+
+    @Benchmark
+    public int loadClasses() throws ClassNotFoundException {
+        return loadClasses(classLoader, 0);
+    }
+
+    @Benchmark
+    public int loadClassesContended() throws Exception {
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            // threads start at different classes and meet on the same ones
+            int offset = i * classNames.length / threads;
+            futures.add(executor.submit(() -> loadClasses(classLoader, offset)));
+        }
+        int loaded = 0;
+        for (Future<Integer> future : futures) {
+            loaded += future.get();
+        }
+        return loaded;
+    }
+
+    protected int loadClasses(ClassLoader classLoader, int offset) throws ClassNotFoundException {
+        int hash = 0;
+        for (int i = 0; i < classNames.length; i++) {
+            hash += classLoader.loadClass(classNames[(offset + i) % classNames.length]).hashCode();
+        }
+        return hash;
+    }
+}
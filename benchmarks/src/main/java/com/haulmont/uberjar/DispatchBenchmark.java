@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.HandlerCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request dispatch through a {@link HandlerCollection} of several contexts, as built by
+ * {@link CubaJettyServer#createServer()}, optionally with request metrics around each context. Requests go through
+ * a {@link LocalConnector} pipelined on one connection, so the numbers include HTTP parsing but no network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(DispatchBenchmark.PIPELINED_REQUESTS)
+public class DispatchBenchmark {
+    protected static final int PIPELINED_REQUESTS = 16;
+
+    @Param({"1", "4", "8"})
+    public int contexts;
+
+    /**
+     * Whether requests go to the first or to the last context of the collection.
+     */
+    @Param({"first", "last"})
+    public String target;
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    protected Server server;
+    protected LocalConnector connector;
+    protected String requests;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        server = new Server();
+        connector = new LocalConnector(server);
+        server.addConnector(connector);
+        RequestMetrics requestMetrics = new RequestMetrics();
+        Handler[] handlers = new Handler[contexts];
+        for (int i = 0; i < contexts; i++) {
+            ContextHandler context = new ContextHandler("/ctx" + i);
+            context.setHandler(new OkHandler());
+            handlers[i] = metrics ? new RequestMetricsHandler(context, requestMetrics.getContextMetrics("ctx" + i)) : context;
+        }
+        HandlerCollection handlerCollection = new HandlerCollection();
+        handlerCollection.setHandlers(handlers);
+        server.setHandler(handlerCollection);
+        server.start();
+
+        int context = "first".equals(target) ? 0 : contexts - 1;
+        StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < PIPELINED_REQUESTS; i++) {
+            requests.append("GET /ctx").append(context).append("/ping HTTP/1.1\r\nHost: localhost\r\n")
+                    .append(i == PIPELINED_REQUESTS - 1 ? "Connection: close\r\n\r\n" : "\r\n");
+        }
+        this.requests = requests.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws Exception {
+        server.stop();
+    }
+
+    @Benchmark
+    public ByteBuffer dispatch() {
+        LocalConnector.LocalEndPoint endPoint = connector.executeRequest(requests);
+        endPoint.waitUntilClosed();
+        return endPoint.takeOutput();
+    }
+
+    protected static class OkHandler extends AbstractHandler {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentLength(0);
+            baseRequest.setHandled(true);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import com.haulmont.uberjar.SyntheticUberJar.LoaderMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link ClassLoader#getResource} through the Shared to Web class loader chain: resources of the Web
+ * loader, resources of the Shared loader and misses, which walk the whole chain. Class misses hit the not found
+ * cache of indexed loaders.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceLookupBenchmark {
+    protected static final int RESOURCES = 1000;
+    protected static final int NAMES = 64;
+
+    @Param({"PLAIN", "INDEXED", "MAPPED"})
+    public LoaderMode loaderMode;
+
+    protected SyntheticUberJar uberJar;
+    protected ClassLoader classLoader;
+
+    protected String[] appResources = new String[NAMES];
+    protected String[] sharedResources = new String[NAMES];
+    protected String[] missingResources = new String[NAMES];
+    protected String[] missingClasses = new String[NAMES];
+    protected int next;
+
+    @Setup(Level.Trial)
+    public void createClassLoader() throws IOException {
+        uberJar = SyntheticUberJar.create(RESOURCES, RESOURCES);
+        classLoader = uberJar.createWebClassLoader(loaderMode);
+        for (int i = 0; i < NAMES; i++) {
+            int resource = i * RESOURCES / NAMES;
+            appResources[i] = SyntheticUberJar.appResourceName(resource);
+            sharedResources[i] = SyntheticUberJar.sharedResourceName(resource);
+            missingResources[i] = SyntheticUberJar.APP_PACKAGE + "missing" + resource + ".xml";
+            missingClasses[i] = SyntheticUberJar.appClassName(resource) + "Missing";
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJar() throws IOException {
+        uberJar.close();
+    }
+
+    @Benchmark
+    public URL appResourceHit() {
+        return classLoader.getResource(appResources[nextName()]);
+    }
+
+    @Benchmark
+    public URL sharedResourceHit() {
+        return classLoader.getResource(sharedResources[nextName()]);
+    }
+
+    @Benchmark
+    public URL resourceMiss() {
+        return classLoader.getResource(missingResources[nextName()]);
+    }
+
+    @Benchmark
+    public Class<?> classMiss() {
+        try {
+            return classLoader.loadClass(missingClasses[nextName()]);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    protected int nextName() {
+        next = (next + 1) & (NAMES - 1);
+        return next;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Application of the startup fixture jars. Loads the classes listed in {@link #CLASS_LIST} when the context starts,
+ * as applications initialize their containers, and answers {@code /ping}. With the {@code stats} parameter, reports
+ * peak RSS and metaspace of the JVM.
+ */
+public class StartupFixtureServlet extends HttpServlet implements ServletContextListener {
+    public static final String CLASS_LIST = "startup-fixture-classes.txt";
+
+    protected static final String LOADED_CLASSES_ATTRIBUTE = "startupFixture.loadedClasses";
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        ClassLoader classLoader = event.getServletContext().getClassLoader();
+        int loaded = 0;
+        try (InputStream in = classLoader.getResourceAsStream(CLASS_LIST)) {
+            if (in != null) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                String className;
+                while ((className = reader.readLine()) != null) {
+                    if (!className.isEmpty()) {
+                        classLoader.loadClass(className);
+                        loaded++;
+                    }
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Unable to load fixture classes", e);
+        }
+        event.getServletContext().setAttribute(LOADED_CLASSES_ATTRIBUTE, loaded);
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain");
+        PrintWriter writer = response.getWriter();
+        if (request.getParameter("stats") != null) {
+            writer.println("peakRssKb=" + getPeakRssKb());
+            writer.println("metaspaceKb=" + getMetaspaceKb());
+        } else {
+            writer.println("loadedClasses=" + getServletContext().getAttribute(LOADED_CLASSES_ATTRIBUTE));
+        }
+    }
+
+    /**
+     * @return high water mark of the resident set size or -1 if the OS does not report it
+     */
+    protected static long getPeakRssKb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    protected static long getMetaspaceKb() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ("Metaspace".equals(pool.getName())) {
+                return pool.getPeakUsage().getUsed() / 1024;
+            }
+        }
+        return -1;
+    }
+}
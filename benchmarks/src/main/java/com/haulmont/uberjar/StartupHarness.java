@@ -0,0 +1,617 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static com.haulmont.uberjar.CubaJettyUtils.CORE_PATH_IN_JAR;
+import static com.haulmont.uberjar.CubaJettyUtils.FRONT_PATH_IN_JAR;
+import static com.haulmont.uberjar.CubaJettyUtils.PATH_DELIMITER;
+import static com.haulmont.uberjar.CubaJettyUtils.PORTAL_PATH_IN_JAR;
+import static com.haulmont.uberjar.CubaJettyUtils.SHARED_CLASS_PATH_IN_JAR;
+import static com.haulmont.uberjar.CubaJettyUtils.WEB_PATH_IN_JAR;
+import static com.haulmont.uberjar.CubaJettyUtils.getAppClassesPath;
+import static java.lang.String.format;
+
+/**
+ * Measures startup of fixture uber jars in fresh JVMs: time until the server port accepts connections, time until
+ * each context answers its first request with 200, peak RSS and metaspace. Fixtures of the given class counts are
+ * generated in the single-jar layout, with Core, Web, Portal and Front in one jar, and in the split layout, with
+ * a jar and a JVM per application. Each measurement is the median of several runs.
+ * <p>
+ * Exits with status 1 if a value exceeds its budget or a memory metric with a budget is not reported. Budgets are
+ * properties named {@code <layout>.<classes>.<metric>}, where the layout and the class count may be {@code *}.
+ */
+public class StartupHarness {
+    public static final String SINGLE_LAYOUT = "single";
+    public static final String SPLIT_LAYOUT = "split";
+
+    protected static final String WILDCARD = "*";
+    protected static final String CONTEXT_NAME = "app";
+    protected static final String PING_PATH = "/ping";
+    protected static final long POLL_PERIOD = 10;
+    protected static final List<String> MEMORY_METRICS = Arrays.asList("peakRssMb", "metaspaceMb");
+
+    protected static final int SHARED_PERCENT = 40;
+    protected static final int CORE_PERCENT = 25;
+    protected static final int WEB_PERCENT = 25;
+    protected static final int PORTAL_PERCENT = 10;
+    protected static final int CLASSES_PER_STATIC_FILE = 50;
+
+    protected static final String WEB_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<web-app xmlns=\"http://xmlns.jcp.org/xml/ns/javaee\" version=\"3.1\">\n" +
+            "    <listener>\n" +
+            "        <listener-class>" + StartupFixtureServlet.class.getName() + "</listener-class>\n" +
+            "    </listener>\n" +
+            "    <servlet>\n" +
+            "        <servlet-name>ping</servlet-name>\n" +
+            "        <servlet-class>" + StartupFixtureServlet.class.getName() + "</servlet-class>\n" +
+            "    </servlet>\n" +
+            "    <servlet-mapping>\n" +
+            "        <servlet-name>ping</servlet-name>\n" +
+            "        <url-pattern>" + PING_PATH + "</url-pattern>\n" +
+            "    </servlet-mapping>\n" +
+            "</web-app>\n";
+
+    protected static final String FRONT_WEB_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<web-app xmlns=\"http://xmlns.jcp.org/xml/ns/javaee\" version=\"3.1\"/>\n";
+
+    protected File workDir;
+    protected int runs = 3;
+    protected long timeout = TimeUnit.MINUTES.toMillis(5);
+    protected List<String> jvmArgs = Collections.emptyList();
+    protected List<String> serverArgs = Collections.emptyList();
+
+    public static void main(String[] args) throws Exception {
+        Options cliOptions = new Options();
+
+        Option classesOption = Option.builder("classes")
+                .hasArg()
+                .desc("comma separated class counts of fixtures, 1000,10000,50000 by default").argName("classes").build();
+
+        Option layoutsOption = Option.builder("layouts")
+                .hasArg()
+                .desc("comma separated layouts of fixtures, single and split, both by default").argName("layouts").build();
+
+        Option runsOption = Option.builder("runs")
+                .hasArg()
+                .desc("JVM starts per fixture, the median is reported, 3 by default").argName("runs").build();
+
+        Option timeoutOption = Option.builder("timeout")
+                .hasArg()
+                .desc("seconds to wait for a server to answer, 300 by default").argName("timeout").build();
+
+        Option workDirOption = Option.builder("workDir")
+                .hasArg()
+                .desc("directory for fixture jars and server logs").argName("workDir").build();
+
+        Option resultsOption = Option.builder("results")
+                .hasArg()
+                .desc("file to write results to in JSON").argName("results").build();
+
+        Option budgetOption = Option.builder("budget")
+                .hasArg()
+                .desc("properties file with max values of metrics").argName("budget").build();
+
+        Option jvmArgsOption = Option.builder("jvmArgs")
+                .hasArg()
+                .desc("comma separated JVM arguments of servers").argName("jvmArgs").build();
+
+        Option serverArgsOption = Option.builder("serverArgs")
+                .hasArg()
+                .desc("comma separated ServerRunner arguments, e.g. -mappedJar,-classLoaderIndex").argName("serverArgs").build();
+
+        cliOptions.addOption(classesOption);
+        cliOptions.addOption(layoutsOption);
+        cliOptions.addOption(runsOption);
+        cliOptions.addOption(timeoutOption);
+        cliOptions.addOption(workDirOption);
+        cliOptions.addOption(resultsOption);
+        cliOptions.addOption(budgetOption);
+        cliOptions.addOption(jvmArgsOption);
+        cliOptions.addOption(serverArgsOption);
+
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(cliOptions, args);
+        } catch (ParseException e) {
+            System.out.println(e.getMessage());
+            new HelpFormatter().printHelp("StartupHarness", cliOptions);
+            System.exit(2);
+            return;
+        }
+
+        StartupHarness harness = new StartupHarness();
+        List<Integer> classCounts = new ArrayList<>();
+        List<String> layouts;
+        try {
+            for (String classes : cmd.getOptionValue(classesOption.getOpt(), "1000,10000,50000").split(",")) {
+                classCounts.add(Integer.parseInt(classes.trim()));
+            }
+            if (cmd.hasOption(runsOption.getOpt())) {
+                harness.runs = Integer.parseInt(cmd.getOptionValue(runsOption.getOpt()));
+            }
+            if (cmd.hasOption(timeoutOption.getOpt())) {
+                harness.timeout = TimeUnit.SECONDS.toMillis(Integer.parseInt(cmd.getOptionValue(timeoutOption.getOpt())));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("classes, runs and timeout have to be numbers");
+            System.exit(2);
+            return;
+        }
+        layouts = Arrays.asList(cmd.getOptionValue(layoutsOption.getOpt(), SINGLE_LAYOUT + "," + SPLIT_LAYOUT).split(","));
+        for (String layout : layouts) {
+            if (!SINGLE_LAYOUT.equals(layout) && !SPLIT_LAYOUT.equals(layout)) {
+                System.out.println(format("Unknown layout %s", layout));
+                System.exit(2);
+                return;
+            }
+        }
+        harness.workDir = new File(cmd.getOptionValue(workDirOption.getOpt(), "startup")).getAbsoluteFile();
+        if (cmd.hasOption(jvmArgsOption.getOpt())) {
+            harness.jvmArgs = splitArgs(cmd.getOptionValue(jvmArgsOption.getOpt()));
+        }
+        if (cmd.hasOption(serverArgsOption.getOpt())) {
+            harness.serverArgs = splitArgs(cmd.getOptionValue(serverArgsOption.getOpt()));
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (int classes : classCounts) {
+            for (String layout : layouts) {
+                results.addAll(harness.measure(layout, classes));
+            }
+        }
+        if (cmd.hasOption(resultsOption.getOpt())) {
+            File resultsFile = new File(cmd.getOptionValue(resultsOption.getOpt()));
+            writeResults(results, resultsFile);
+            System.out.println(format("Results are written to %s", resultsFile));
+        }
+        if (cmd.hasOption(budgetOption.getOpt())) {
+            Properties budget = new Properties();
+            try (InputStream in = new FileInputStream(cmd.getOptionValue(budgetOption.getOpt()))) {
+                budget.load(in);
+            }
+            if (!checkBudget(results, budget)) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Generates fixtures of the layout and measures each of them in {@link #runs} fresh JVMs.
+     */
+    public List<Result> measure(String layout, int classes) throws Exception {
+        File fixtureDir = new File(workDir, layout + "-" + classes);
+        if (!fixtureDir.isDirectory() && !fixtureDir.mkdirs()) {
+            throw new IOException(format("Unable to create %s", fixtureDir));
+        }
+        List<Fixture> fixtures = SINGLE_LAYOUT.equals(layout) ?
+                writeSingleJarFixtures(fixtureDir, classes) : writeSplitFixtures(fixtureDir, classes);
+        List<Result> results = new ArrayList<>();
+        for (Fixture fixture : fixtures) {
+            Map<String, List<Long>> samples = new LinkedHashMap<>();
+            for (int run = 0; run < runs; run++) {
+                File logFile = new File(fixtureDir, format("%s-%d.log", fixture.name, run));
+                for (Map.Entry<String, Long> entry : start(fixture, logFile).entrySet()) {
+                    samples.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(entry.getValue());
+                }
+            }
+            Result result = new Result(layout, classes, fixture.name);
+            for (Map.Entry<String, List<Long>> entry : samples.entrySet()) {
+                List<Long> values = entry.getValue();
+                Collections.sort(values);
+                result.metrics.put(entry.getKey(), values.get(values.size() / 2));
+            }
+            System.out.println(result);
+            results.add(result);
+        }
+        return results;
+    }
+
+    protected List<Fixture> writeSingleJarFixtures(File dir, int classes) throws IOException {
+        File jar = new File(dir, "app.jar");
+        try (FixtureJar out = new FixtureJar(jar)) {
+            List<String> sharedClasses = out.writeShared(percent(classes, SHARED_PERCENT));
+            out.writeApp(CORE_PATH_IN_JAR, "core", percent(classes, CORE_PERCENT), sharedClasses);
+            out.writeApp(WEB_PATH_IN_JAR, "web", percent(classes, WEB_PERCENT), sharedClasses);
+            out.writeApp(PORTAL_PATH_IN_JAR, "portal", percent(classes, PORTAL_PERCENT), sharedClasses);
+            out.writeFront(classes / CLASSES_PER_STATIC_FILE);
+        }
+        return Collections.singletonList(new Fixture("app", jar, CONTEXT_NAME,
+                "/app-core" + PING_PATH, "/app" + PING_PATH, "/app-portal" + PING_PATH, "/app-front/index.html"));
+    }
+
+    protected List<Fixture> writeSplitFixtures(File dir, int classes) throws IOException {
+        List<Fixture> fixtures = new ArrayList<>();
+        File coreJar = new File(dir, "app-core.jar");
+        try (FixtureJar out = new FixtureJar(coreJar)) {
+            List<String> sharedClasses = out.writeShared(percent(classes, SHARED_PERCENT));
+            out.writeApp(CORE_PATH_IN_JAR, "core", percent(classes, CORE_PERCENT), sharedClasses);
+        }
+        fixtures.add(new Fixture("core", coreJar, "app-core", "/app-core" + PING_PATH));
+        File webJar = new File(dir, "app.jar");
+        try (FixtureJar out = new FixtureJar(webJar)) {
+            List<String> sharedClasses = out.writeShared(percent(classes, SHARED_PERCENT));
+            out.writeApp(WEB_PATH_IN_JAR, "web", percent(classes, WEB_PERCENT), sharedClasses);
+            out.writeFront(classes / CLASSES_PER_STATIC_FILE);
+        }
+        fixtures.add(new Fixture("web", webJar, CONTEXT_NAME, "/app" + PING_PATH, "/app-front/index.html"));
+        File portalJar = new File(dir, "app-portal.jar");
+        try (FixtureJar out = new FixtureJar(portalJar)) {
+            List<String> sharedClasses = out.writeShared(percent(classes, SHARED_PERCENT));
+            out.writeApp(PORTAL_PATH_IN_JAR, "portal", percent(classes, PORTAL_PERCENT), sharedClasses);
+        }
+        fixtures.add(new Fixture("portal", portalJar, "app-portal", "/app-portal" + PING_PATH));
+        return fixtures;
+    }
+
+    /**
+     * Starts a server with the fixture jar on its class path and waits until every context has answered.
+     *
+     * @return metrics of the run
+     */
+    protected Map<String, Long> start(Fixture fixture, File logFile) throws Exception {
+        int port = findFreePort();
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(getServerClassPath() + File.pathSeparator + fixture.jar.getAbsolutePath());
+        command.add(ServerRunner.class.getName());
+        command.add("-port");
+        command.add(Integer.toString(port));
+        command.add("-contextName");
+        command.add(fixture.contextName);
+        command.addAll(serverArgs);
+
+        ProcessBuilder processBuilder = new ProcessBuilder(command)
+                .directory(fixture.jar.getParentFile())
+                .redirectErrorStream(true)
+                .redirectOutput(logFile);
+        long startTime = System.nanoTime();
+        Process process = processBuilder.start();
+        try {
+            Map<String, Long> metrics = new LinkedHashMap<>();
+            waitForPort(process, port, startTime, logFile);
+            metrics.put("listenMs", elapsedMillis(startTime));
+            long slowestRequest = 0;
+            for (String path : fixture.paths) {
+                waitForOk(process, new URL(format("http://127.0.0.1:%d%s", port, path)), startTime, logFile);
+                long firstRequest = elapsedMillis(startTime);
+                metrics.put("firstRequestMs." + path.substring(1, path.indexOf('/', 1)), firstRequest);
+                slowestRequest = Math.max(slowestRequest, firstRequest);
+            }
+            metrics.put("firstRequestMs", slowestRequest);
+            Properties stats = new Properties();
+            HttpURLConnection connection = (HttpURLConnection) new URL(
+                    format("http://127.0.0.1:%d%s?stats", port, fixture.paths.get(0))).openConnection();
+            try (InputStream in = connection.getInputStream()) {
+                stats.load(in);
+            }
+            putMemoryMetric(metrics, "peakRssMb", stats.getProperty("peakRssKb"));
+            putMemoryMetric(metrics, "metaspaceMb", stats.getProperty("metaspaceKb"));
+            return metrics;
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    /**
+     * Skips values that the server does not report, e.g. peak RSS outside Linux.
+     */
+    protected static void putMemoryMetric(Map<String, Long> metrics, String metric, String valueKb) {
+        if (valueKb != null && Long.parseLong(valueKb.trim()) >= 0) {
+            metrics.put(metric, Long.parseLong(valueKb.trim()) / 1024);
+        }
+    }
+
+    protected void waitForPort(Process process, int port, long startTime, File logFile) throws Exception {
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+                return;
+            } catch (IOException e) {
+                checkAlive(process, startTime, logFile);
+                Thread.sleep(POLL_PERIOD);
+            }
+        }
+    }
+
+    protected void waitForOk(Process process, URL url, long startTime, File logFile) throws Exception {
+        while (true) {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(1000);
+            connection.setReadTimeout((int) timeout);
+            try {
+                int status = connection.getResponseCode();
+                try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                    if (in != null) {
+                        while (in.read() >= 0) {
+                            // drain to reuse the connection
+                        }
+                    }
+                }
+                if (status == HttpURLConnection.HTTP_OK) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not started yet
+            }
+            checkAlive(process, startTime, logFile);
+            Thread.sleep(POLL_PERIOD);
+        }
+    }
+
+    protected void checkAlive(Process process, long startTime, File logFile) {
+        if (!process.isAlive()) {
+            throw new IllegalStateException(format("Server exited with code %d, see %s", process.exitValue(), logFile));
+        }
+        if (elapsedMillis(startTime) > timeout) {
+            throw new IllegalStateException(format("Server has not answered in %d seconds, see %s",
+                    TimeUnit.MILLISECONDS.toSeconds(timeout), logFile));
+        }
+    }
+
+    /**
+     * @return class path of this JVM without the benchmarks, so that fixture classes come from the fixture jars
+     */
+    protected static String getServerClassPath() throws Exception {
+        File harnessLocation = new File(StartupHarness.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        StringBuilder classPath = new StringBuilder();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (!new File(entry).getAbsoluteFile().equals(harnessLocation)) {
+                if (classPath.length() > 0) {
+                    classPath.append(File.pathSeparator);
+                }
+                classPath.append(entry);
+            }
+        }
+        return classPath.toString();
+    }
+
+    protected static boolean checkBudget(List<Result> results, Properties budget) {
+        boolean withinBudget = true;
+        for (Result result : results) {
+            for (String metric : MEMORY_METRICS) {
+                String limit = findBudget(budget, result.layout, result.classes, metric);
+                if (limit != null && !result.metrics.containsKey(metric)) {
+                    System.out.println(format("Budget not checked: %s %d %s %s is not reported by the server",
+                            result.layout, result.classes, result.jvm, metric));
+                    withinBudget = false;
+                }
+            }
+            for (Map.Entry<String, Long> metric : result.metrics.entrySet()) {
+                String limit = findBudget(budget, result.layout, result.classes, metric.getKey());
+                if (limit != null && metric.getValue() > Long.parseLong(limit.trim())) {
+                    System.out.println(format("Budget exceeded: %s %d %s %s = %d > %s", result.layout, result.classes,
+                            result.jvm, metric.getKey(), metric.getValue(), limit.trim()));
+                    withinBudget = false;
+                }
+            }
+        }
+        if (withinBudget) {
+            System.out.println("All metrics are within budget");
+        }
+        return withinBudget;
+    }
+
+    protected static String findBudget(Properties budget, String layout, int classes, String metric) {
+        for (String layoutKey : new String[]{layout, WILDCARD}) {
+            for (String classesKey : new String[]{Integer.toString(classes), WILDCARD}) {
+                String limit = budget.getProperty(layoutKey + "." + classesKey + "." + metric);
+                if (limit != null) {
+                    return limit;
+                }
+            }
+        }
+        return null;
+    }
+
+    protected static void writeResults(List<Result> results, File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException(format("Unable to create %s", dir));
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write("[\n");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                writer.write(format("  {\"layout\": \"%s\", \"classes\": %d, \"jvm\": \"%s\", \"metrics\": {",
+                        result.layout, result.classes, result.jvm));
+                int metric = 0;
+                for (Map.Entry<String, Long> entry : result.metrics.entrySet()) {
+                    writer.write(format("%s\"%s\": %d", metric++ > 0 ? ", " : "", entry.getKey(), entry.getValue()));
+                }
+                writer.write(i < results.size() - 1 ? "}},\n" : "}}\n");
+            }
+            writer.write("]\n");
+        }
+    }
+
+    protected static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    protected static long elapsedMillis(long startTime) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    protected static int percent(int value, int percent) {
+        return Math.max(1, value * percent / 100);
+    }
+
+    protected static List<String> splitArgs(String args) {
+        List<String> result = new ArrayList<>();
+        for (String arg : args.split(",")) {
+            if (!arg.trim().isEmpty()) {
+                result.add(arg.trim());
+            }
+        }
+        return result;
+    }
+
+    protected static class Fixture {
+        protected final String name;
+        protected final File jar;
+        protected final String contextName;
+        protected final List<String> paths;
+
+        protected Fixture(String name, File jar, String contextName, String... paths) {
+            this.name = name;
+            this.jar = jar;
+            this.contextName = contextName;
+            this.paths = Arrays.asList(paths);
+        }
+    }
+
+    protected static class Result {
+        protected final String layout;
+        protected final int classes;
+        protected final String jvm;
+        protected final Map<String, Long> metrics = new LinkedHashMap<>();
+
+        protected Result(String layout, int classes, String jvm) {
+            this.layout = layout;
+            this.classes = classes;
+            this.jvm = jvm;
+        }
+
+        @Override
+        public String toString() {
+            return format("%-6s %6d %-6s listen %6d ms, first request %6d ms, peak RSS %5d MB, metaspace %4d MB",
+                    layout, classes, jvm, metrics.get("listenMs"), metrics.get("firstRequestMs"),
+                    metrics.get("peakRssMb"), metrics.get("metaspaceMb"));
+        }
+    }
+
+    /**
+     * Writes the {@code LIB-INF} content of a fixture, creating parent directory entries on the way.
+     */
+    protected static class FixtureJar implements AutoCloseable {
+        protected final JarOutputStream out;
+        protected final Set<String> directories = new HashSet<>();
+
+        protected FixtureJar(File file) throws IOException {
+            out = new JarOutputStream(new FileOutputStream(file));
+        }
+
+        /**
+         * @return names of the written classes
+         */
+        protected List<String> writeShared(int classes) throws IOException {
+            String root = SHARED_CLASS_PATH_IN_JAR + PATH_DELIMITER;
+            return writeClasses(root, "bench/shared/Shared", classes);
+        }
+
+        protected void writeApp(String appPathInJar, String name, int classes, List<String> sharedClasses) throws IOException {
+            String root = getAppClassesPath(appPathInJar) + PATH_DELIMITER;
+            putEntry(appPathInJar + "/WEB-INF/web.xml", WEB_XML.getBytes(StandardCharsets.UTF_8));
+            String servletPath = StartupFixtureServlet.class.getName().replace('.', '/') + ".class";
+            try (InputStream in = StartupFixtureServlet.class.getClassLoader().getResourceAsStream(servletPath)) {
+                putEntry(root + servletPath, IOUtils.toByteArray(in));
+            }
+            List<String> classNames = new ArrayList<>(writeClasses(root, "bench/" + name + "/" + name + "Class", classes));
+            classNames.addAll(sharedClasses);
+            putEntry(root + StartupFixtureServlet.CLASS_LIST,
+                    String.join("\n", classNames).getBytes(StandardCharsets.UTF_8));
+        }
+
+        protected void writeFront(int files) throws IOException {
+            putEntry(FRONT_PATH_IN_JAR + "/WEB-INF/web.xml", FRONT_WEB_XML.getBytes(StandardCharsets.UTF_8));
+            // the server creates a class loader for the classes directory even if it is empty
+            putDirectories(getAppClassesPath(FRONT_PATH_IN_JAR) + PATH_DELIMITER);
+            putEntry(FRONT_PATH_IN_JAR + "/index.html", "<html><body>front</body></html>".getBytes(StandardCharsets.UTF_8));
+            byte[] content = new byte[4096];
+            Arrays.fill(content, (byte) 'x');
+            for (int i = 0; i < files; i++) {
+                putEntry(FRONT_PATH_IN_JAR + "/static/file" + i + ".js", content);
+            }
+        }
+
+        protected List<String> writeClasses(String root, String namePrefix, int classes) throws IOException {
+            List<String> classNames = new ArrayList<>(classes);
+            for (int i = 0; i < classes; i++) {
+                String internalName = namePrefix + i;
+                putEntry(root + internalName + ".class", SyntheticUberJar.classBytes(internalName));
+                classNames.add(internalName.replace('/', '.'));
+            }
+            return classNames;
+        }
+
+        protected void putEntry(String name, byte[] content) throws IOException {
+            putDirectories(name);
+            out.putNextEntry(new JarEntry(name));
+            out.write(content);
+            out.closeEntry();
+        }
+
+        protected void putDirectories(String name) throws IOException {
+            int separator = name.indexOf('/');
+            while (separator > 0) {
+                String directory = name.substring(0, separator + 1);
+                if (directories.add(directory)) {
+                    out.putNextEntry(new JarEntry(directory));
+                    out.closeEntry();
+                }
+                separator = name.indexOf('/', separator + 1);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
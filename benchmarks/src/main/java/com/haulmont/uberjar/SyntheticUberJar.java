@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static com.haulmont.uberjar.CubaJettyUtils.CORE_PATH_IN_JAR;
+import static com.haulmont.uberjar.CubaJettyUtils.PATH_DELIMITER;
+import static com.haulmont.uberjar.CubaJettyUtils.SHARED_CLASS_PATH_IN_JAR;
+import static com.haulmont.uberjar.CubaJettyUtils.WEB_PATH_IN_JAR;
+import static com.haulmont.uberjar.CubaJettyUtils.getAppClassesPath;
+import static com.haulmont.uberjar.CubaJettyUtils.pathsToURLs;
+
+/**
+ * Uber jar with the {@code LIB-INF} layout of a single-jar application, filled with generated classes and resources,
+ * and the Shared and app class loaders created over it the same way the server creates them.
+ * <p>
+ * The content depends only on the counts, so results of different commits are measured against the same jar.
+ */
+public class SyntheticUberJar {
+    public static final String SHARED_PACKAGE = "bench/shared/";
+    public static final String APP_PACKAGE = "bench/app/";
+
+    /**
+     * Class loaders as configured by {@code -classLoaderIndex} and {@code -mappedJar}.
+     */
+    public enum LoaderMode {
+        PLAIN, INDEXED, MAPPED
+    }
+
+    protected final File file;
+    protected final int sharedClasses;
+    protected final int appClasses;
+    protected final URLClassLoader serverClassLoader;
+
+    protected SyntheticUberJar(File file, int sharedClasses, int appClasses) throws IOException {
+        this.file = file;
+        this.sharedClasses = sharedClasses;
+        this.appClasses = appClasses;
+        this.serverClassLoader = new URLClassLoader(new URL[]{file.toURI().toURL()}, null);
+    }
+
+    /**
+     * Writes a jar to a temporary file, which is deleted by {@link #close()}.
+     */
+    public static SyntheticUberJar create(int sharedClasses, int appClasses) throws IOException {
+        File file = File.createTempFile("uberjar-bench", ".jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            String sharedRoot = SHARED_CLASS_PATH_IN_JAR + PATH_DELIMITER;
+            writeDirectory(out, sharedRoot, SHARED_PACKAGE);
+            for (int i = 0; i < sharedClasses; i++) {
+                writeEntry(out, sharedRoot + SHARED_PACKAGE + sharedClassSimpleName(i) + ".class",
+                        classBytes(SHARED_PACKAGE + sharedClassSimpleName(i)));
+                writeEntry(out, sharedRoot + SHARED_PACKAGE + "shared" + i + ".properties", resourceBytes(i));
+            }
+            for (String appPath : new String[]{CORE_PATH_IN_JAR, WEB_PATH_IN_JAR}) {
+                String appRoot = getAppClassesPath(appPath) + PATH_DELIMITER;
+                writeDirectory(out, appRoot, APP_PACKAGE);
+                for (int i = 0; i < appClasses; i++) {
+                    writeEntry(out, appRoot + APP_PACKAGE + appClassSimpleName(i) + ".class",
+                            classBytes(APP_PACKAGE + appClassSimpleName(i)));
+                    writeEntry(out, appRoot + APP_PACKAGE + "app" + i + ".xml", resourceBytes(i));
+                }
+            }
+        }
+        return new SyntheticUberJar(file, sharedClasses, appClasses);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getSharedClasses() {
+        return sharedClasses;
+    }
+
+    public int getAppClasses() {
+        return appClasses;
+    }
+
+    /**
+     * @return Web class loader with the Shared class loader as its parent
+     */
+    public UberJarURLClassLoader createWebClassLoader(LoaderMode mode) {
+        UberJarURLClassLoader sharedClassLoader = createClassLoader("Shared", mode,
+                pathsToURLs(serverClassLoader, SHARED_CLASS_PATH_IN_JAR), serverClassLoader);
+        return createClassLoader("Web", mode,
+                pathsToURLs(serverClassLoader, getAppClassesPath(WEB_PATH_IN_JAR)), sharedClassLoader);
+    }
+
+    public void close() throws IOException {
+        serverClassLoader.close();
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    public static String sharedClassName(int i) {
+        return (SHARED_PACKAGE + sharedClassSimpleName(i)).replace('/', '.');
+    }
+
+    public static String appClassName(int i) {
+        return (APP_PACKAGE + appClassSimpleName(i)).replace('/', '.');
+    }
+
+    public static String sharedResourceName(int i) {
+        return SHARED_PACKAGE + "shared" + i + ".properties";
+    }
+
+    public static String appResourceName(int i) {
+        return APP_PACKAGE + "app" + i + ".xml";
+    }
+
+    protected static UberJarURLClassLoader createClassLoader(String name, LoaderMode mode, URL[] urls, ClassLoader parent) {
+        if (mode == LoaderMode.MAPPED) {
+            CubaJettyUtils.registerProtocolHandlers();
+            urls = MappedJarURLs.toMappedURLs(urls);
+        }
+        return new UberJarURLClassLoader(name, urls, parent, mode != LoaderMode.PLAIN, null);
+    }
+
+    protected static String sharedClassSimpleName(int i) {
+        return "Shared" + i;
+    }
+
+    protected static String appClassSimpleName(int i) {
+        return "App" + i;
+    }
+
+    protected static void writeDirectory(JarOutputStream out, String root, String packagePath) throws IOException {
+        String path = root;
+        out.putNextEntry(new JarEntry(path));
+        for (String segment : packagePath.split(PATH_DELIMITER)) {
+            path += segment + PATH_DELIMITER;
+            out.putNextEntry(new JarEntry(path));
+        }
+    }
+
+    protected static void writeEntry(JarOutputStream out, String name, byte[] content) throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        out.write(content);
+        out.closeEntry();
+    }
+
+    protected static byte[] resourceBytes(int i) {
+        StringBuilder sb = new StringBuilder();
+        for (int line = 0; line < 32; line++) {
+            sb.append("key").append(line).append(" = value ").append(i).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return class file of an empty public class extending {@link Object}
+     */
+    protected static byte[] classBytes(String internalName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(52);
+        // constant pool: #1 name, #2 this class, #3 Object name, #4 super class
+        out.writeShort(5);
+        out.writeByte(1);
+        out.writeUTF(internalName);
+        out.writeByte(7);
+        out.writeShort(1);
+        out.writeByte(1);
+        out.writeUTF("java/lang/Object");
+        out.writeByte(7);
+        out.writeShort(3);
+        // public super
+        out.writeShort(0x0021);
+        out.writeShort(2);
+        out.writeShort(4);
+        // interfaces, fields, methods, attributes
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
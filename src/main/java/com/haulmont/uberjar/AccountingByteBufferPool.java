@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Buffer pool of the connectors that counts how often buffers are taken from the pool or allocated, so that
+ * the pool can be sized for the responses of the application.
+ * <p>
+ * Buffers larger than the max capacity are allocated on each request and are not retained. Pooled buffers are
+ * dropped when a bucket is full or the pool holds its max heap or direct memory.
+ */
+public class AccountingByteBufferPool extends ArrayByteBufferPool implements AccountingByteBufferPoolMBean {
+    public static final String OBJECT_NAME = "com.haulmont.uberjar:type=ByteBufferPool";
+    public static final int DEFAULT_MAX_CAPACITY = 64 * 1024;
+
+    protected final int maxCapacity;
+    protected final Boolean direct;
+
+    protected final LongAdder acquiredBuffers = new LongAdder();
+    protected final LongAdder allocatedHeapBuffers = new LongAdder();
+    protected final LongAdder allocatedDirectBuffers = new LongAdder();
+    protected final LongAdder allocatedDirectBytes = new LongAdder();
+    protected final LongAdder oversizedBuffers = new LongAdder();
+    protected final LongAdder releasedBuffers = new LongAdder();
+
+    /**
+     * @param maxQueueLength  max number of buffers retained per bucket, -1 for no limit
+     * @param maxHeapMemory   max bytes of retained heap buffers, 0 for a quarter of the max heap, -1 for no limit
+     * @param maxDirectMemory max bytes of retained direct buffers, 0 for a quarter of the max heap, -1 for no limit
+     * @param direct          true or false to allocate only direct or heap buffers, null to let the connection decide
+     */
+    public AccountingByteBufferPool(int minCapacity, int factor, int maxCapacity, int maxQueueLength,
+                                    long maxHeapMemory, long maxDirectMemory, Boolean direct) {
+        super(minCapacity, factor, maxCapacity, maxQueueLength, maxHeapMemory, maxDirectMemory);
+        this.maxCapacity = maxCapacity > 0 ? maxCapacity : DEFAULT_MAX_CAPACITY;
+        this.direct = direct;
+    }
+
+    @Override
+    public ByteBuffer acquire(int size, boolean direct) {
+        acquiredBuffers.increment();
+        if (size > maxCapacity) {
+            oversizedBuffers.increment();
+        }
+        return super.acquire(size, this.direct != null ? this.direct : direct);
+    }
+
+    @Override
+    public ByteBuffer newByteBuffer(int capacity, boolean direct) {
+        if (direct) {
+            allocatedDirectBuffers.increment();
+            allocatedDirectBytes.add(capacity);
+        } else {
+            allocatedHeapBuffers.increment();
+        }
+        return super.newByteBuffer(capacity, direct);
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+        if (buffer != null) {
+            releasedBuffers.increment();
+        }
+        super.release(buffer);
+    }
+
+    @Override
+    public long getAcquiredBuffers() {
+        return acquiredBuffers.sum();
+    }
+
+    @Override
+    public long getHits() {
+        return Math.max(0, getAcquiredBuffers() - getMisses());
+    }
+
+    @Override
+    public long getMisses() {
+        return getAllocatedHeapBuffers() + getAllocatedDirectBuffers();
+    }
+
+    @Override
+    public long getAllocatedHeapBuffers() {
+        return allocatedHeapBuffers.sum();
+    }
+
+    @Override
+    public long getAllocatedDirectBuffers() {
+        return allocatedDirectBuffers.sum();
+    }
+
+    @Override
+    public long getAllocatedDirectBytes() {
+        return allocatedDirectBytes.sum();
+    }
+
+    @Override
+    public long getOversizedBuffers() {
+        return oversizedBuffers.sum();
+    }
+
+    @Override
+    public long getReleasedBuffers() {
+        return releasedBuffers.sum();
+    }
+
+    /**
+     * Grows when buffers are taken and never returned, e.g. on failed connections.
+     */
+    @Override
+    public long getBuffersInUse() {
+        return Math.max(0, getAcquiredBuffers() - getReleasedBuffers());
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+public interface AccountingByteBufferPoolMBean {
+
+    long getMaxHeapMemory();
+
+    long getMaxDirectMemory();
+
+    long getHeapMemory();
+
+    long getDirectMemory();
+
+    long getHeapByteBufferCount();
+
+    long getDirectByteBufferCount();
+
+    long getAcquiredBuffers();
+
+    long getHits();
+
+    long getMisses();
+
+    long getAllocatedHeapBuffers();
+
+    long getAllocatedDirectBuffers();
+
+    long getAllocatedDirectBytes();
+
+    long getOversizedBuffers();
+
+    long getReleasedBuffers();
+
+    long getBuffersInUse();
+
+    void clear();
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.DateCache;
+import org.eclipse.jetty.util.RolloverFileOutputStream;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * NCSA combined access log that keeps file writes off request threads.
+ * <p>
+ * A request thread claims a slot of a bounded ring, formats the line into the reused buffer of the slot and publishes
+ * it. A single writer thread encodes published lines into one batch and writes the batch to a
+ * {@link RolloverFileOutputStream}, which rotates files with {@code yyyy_mm_dd} in their name at midnight.
+ * When the ring is full, the line is dropped and counted instead of waiting for the writer.
+ */
+public class AsyncRequestLog extends AbstractLifeCycle implements RequestLog, AsyncRequestLogMBean {
+    public static final String OBJECT_NAME = "com.haulmont.uberjar:type=AccessLog";
+
+    protected static final int MAX_RETAINED_LINE_LENGTH = 4096;
+    protected static final int BATCH_SIZE = 64 * 1024;
+    protected static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    protected final String fileName;
+    protected final int retainDays;
+    protected final int capacity;
+    protected final int mask;
+
+    protected final StringBuilder[] slots;
+    protected final AtomicLongArray published;
+    protected final AtomicLong claimed = new AtomicLong();
+    protected volatile long consumed;
+
+    protected final LongAdder droppedLines = new LongAdder();
+    protected final LongAdder writtenLines = new LongAdder();
+
+    protected final DateCache dateCache = new DateCache("dd/MMM/yyyy:HH:mm:ss Z", Locale.getDefault(), TimeZone.getDefault());
+
+    protected volatile boolean running;
+    protected Thread writerThread;
+    protected OutputStream out;
+    protected byte[] batch = new byte[BATCH_SIZE];
+    protected int batchLength;
+
+    /**
+     * @param fileName   log file name, files are rotated daily if it contains {@code yyyy_mm_dd}
+     * @param retainDays days to keep rotated files
+     * @param capacity   max number of lines waiting for the writer, rounded up to a power of two
+     */
+    public AsyncRequestLog(String fileName, int retainDays, int capacity) {
+        this.fileName = fileName;
+        this.retainDays = retainDays;
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.slots = new StringBuilder[this.capacity];
+        for (int i = 0; i < this.capacity; i++) {
+            slots[i] = new StringBuilder(256);
+        }
+        this.published = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        out = new RolloverFileOutputStream(fileName, true, retainDays, TimeZone.getDefault());
+        running = true;
+        writerThread = new Thread(this::writeLoop, "AccessLogWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        CubaJettyUtils.registerMBean(this, OBJECT_NAME);
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        running = false;
+        LockSupport.unpark(writerThread);
+        writerThread.join(TimeUnit.SECONDS.toMillis(CubaJettyUtils.STOP_TIMEOUT));
+        out.close();
+    }
+
+    @Override
+    public void log(Request request, Response response) {
+        if (!running) {
+            droppedLines.increment();
+            return;
+        }
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= capacity) {
+                droppedLines.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int index = (int) (sequence & mask);
+        StringBuilder line = slots[index];
+        line.setLength(0);
+        try {
+            format(line, request, response);
+        } catch (RuntimeException e) {
+            line.setLength(0);
+            line.append("# failed to format: ").append(e).append('\n');
+        } finally {
+            // the writer waits for every claimed slot, so it is published in any case
+            published.set(index, sequence);
+        }
+    }
+
+    protected void format(StringBuilder line, Request request, Response response) {
+        line.append(request.getRemoteAddr()).append(" - ");
+        appendQuoted(line, request.getRemoteUser(), false);
+        line.append(" [").append(dateCache.format(request.getTimeStamp())).append("] \"")
+                .append(request.getMethod()).append(' ')
+                .append(request.getOriginalURI()).append(' ')
+                .append(request.getProtocol()).append("\" ")
+                .append(response.getCommittedMetaData().getStatus()).append(' ')
+                .append(response.getHttpChannel().getBytesWritten()).append(' ');
+        appendQuoted(line, request.getHeader("Referer"), true);
+        line.append(' ');
+        appendQuoted(line, request.getHeader("User-Agent"), true);
+        line.append(' ').append(System.currentTimeMillis() - request.getTimeStamp()).append('\n');
+    }
+
+    protected void appendQuoted(StringBuilder line, String value, boolean quote) {
+        if (value == null || value.isEmpty()) {
+            line.append(quote ? "\"-\"" : "-");
+            return;
+        }
+        if (quote) {
+            line.append('"');
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            line.append(c == '"' || c < ' ' ? '_' : c);
+        }
+        if (quote) {
+            line.append('"');
+        }
+    }
+
+    protected void writeLoop() {
+        while (running || consumed < claimed.get()) {
+            try {
+                if (drain() == 0) {
+                    flush();
+                    if (running) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    } else if (consumed < claimed.get()) {
+                        // a line is claimed but not published yet
+                        Thread.yield();
+                    }
+                }
+            } catch (IOException e) {
+                batchLength = 0;
+                System.out.println("Failed to write access log: " + e);
+            }
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            System.out.println("Failed to write access log: " + e);
+        }
+    }
+
+    /**
+     * @return number of published lines moved into the batch
+     */
+    protected int drain() throws IOException {
+        int lines = 0;
+        long sequence = consumed;
+        while (true) {
+            int index = (int) (sequence & mask);
+            if (published.get(index) != sequence) {
+                break;
+            }
+            StringBuilder line = slots[index];
+            encode(line);
+            if (line.capacity() > MAX_RETAINED_LINE_LENGTH) {
+                // don't keep a buffer grown by an unusually long line
+                slots[index] = new StringBuilder(256);
+            }
+            sequence++;
+            consumed = sequence;
+            lines++;
+        }
+        writtenLines.add(lines);
+        return lines;
+    }
+
+    protected void encode(CharSequence line) throws IOException {
+        for (int i = 0; i < line.length(); i++) {
+            if (batchLength > batch.length - 4) {
+                flush();
+            }
+            int c = line.charAt(i);
+            if (Character.isHighSurrogate((char) c) && i + 1 < line.length() && Character.isLowSurrogate(line.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, line.charAt(++i));
+            }
+            if (c < 0x80) {
+                batch[batchLength++] = (byte) c;
+            } else if (c < 0x800) {
+                batch[batchLength++] = (byte) (0xC0 | c >> 6);
+                batch[batchLength++] = (byte) (0x80 | c & 0x3F);
+            } else if (c < 0x10000) {
+                batch[batchLength++] = (byte) (0xE0 | c >> 12);
+                batch[batchLength++] = (byte) (0x80 | c >> 6 & 0x3F);
+                batch[batchLength++] = (byte) (0x80 | c & 0x3F);
+            } else {
+                batch[batchLength++] = (byte) (0xF0 | c >> 18);
+                batch[batchLength++] = (byte) (0x80 | c >> 12 & 0x3F);
+                batch[batchLength++] = (byte) (0x80 | c >> 6 & 0x3F);
+                batch[batchLength++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    protected void flush() throws IOException {
+        if (batchLength > 0) {
+            int length = batchLength;
+            batchLength = 0;
+            out.write(batch, 0, length);
+            out.flush();
+        }
+    }
+
+    @Override
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getPendingLines() {
+        return (int) Math.max(0, claimed.get() - consumed);
+    }
+
+    @Override
+    public long getWrittenLines() {
+        return writtenLines.sum();
+    }
+
+    @Override
+    public long getDroppedLines() {
+        return droppedLines.sum();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.server.session.FileSessionDataStore;
+import org.eclipse.jetty.server.session.SessionData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link FileSessionDataStore} that reads and writes session files through buffers, so that serializing a large
+ * session graph does not issue a system call per attribute field.
+ */
+public class BufferedFileSessionDataStore extends FileSessionDataStore {
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    @Override
+    protected void save(OutputStream os, String id, SessionData data) throws IOException {
+        BufferedOutputStream out = new BufferedOutputStream(os, BUFFER_SIZE);
+        super.save(out, id, data);
+        out.flush();
+    }
+
+    @Override
+    protected SessionData load(InputStream is, String expectedId) throws Exception {
+        return super.load(new BufferedInputStream(is, BUFFER_SIZE), expectedId);
+    }
+}
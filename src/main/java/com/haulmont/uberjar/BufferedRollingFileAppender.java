@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+import ch.qos.logback.core.util.FileSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling file appender writing through a large buffer that is flushed periodically instead of after every event.
+ * Events of the flush level and above, WARN by default, are flushed immediately.
+ * <p>
+ * Can be used in {@code logback.xml} as {@code class="com.haulmont.uberjar.BufferedRollingFileAppender"}.
+ */
+public class BufferedRollingFileAppender<E> extends RollingFileAppender<E> {
+    public static final long DEFAULT_BUFFER_SIZE = 256 * 1024;
+    public static final long DEFAULT_FLUSH_PERIOD = 1000;
+
+    protected long flushPeriod = DEFAULT_FLUSH_PERIOD;
+    protected Level flushLevel = Level.WARN;
+
+    private ScheduledFuture<?> flushTask;
+
+    public BufferedRollingFileAppender() {
+        setImmediateFlush(false);
+        setBufferSize(new FileSize(DEFAULT_BUFFER_SIZE));
+    }
+
+    public long getFlushPeriod() {
+        return flushPeriod;
+    }
+
+    /**
+     * @param flushPeriod max time in milliseconds an event stays in the buffer, 0 to flush only when the buffer is full
+     */
+    public void setFlushPeriod(long flushPeriod) {
+        this.flushPeriod = flushPeriod;
+    }
+
+    public Level getFlushLevel() {
+        return flushLevel;
+    }
+
+    /**
+     * @param flushLevel level of logging events flushed right after they are written, null to flush none
+     */
+    public void setFlushLevel(Level flushLevel) {
+        this.flushLevel = flushLevel;
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        if (isStarted() && !isImmediateFlush() && flushPeriod > 0) {
+            flushTask = getContext().getScheduledExecutorService()
+                    .scheduleWithFixedDelay(this::flush, flushPeriod, flushPeriod, TimeUnit.MILLISECONDS);
+            getContext().addScheduledFuture(flushTask);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        super.stop();
+    }
+
+    @Override
+    protected void subAppend(E event) {
+        super.subAppend(event);
+        if (flushLevel != null && event instanceof ILoggingEvent
+                && ((ILoggingEvent) event).getLevel().isGreaterOrEqual(flushLevel)) {
+            flush();
+        }
+    }
+
+    protected void flush() {
+        lock.lock();
+        try {
+            OutputStream outputStream = getOutputStream();
+            if (outputStream != null) {
+                outputStream.flush();
+            }
+        } catch (IOException e) {
+            addError("Failed to flush " + getFile(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.sun.management.VMOption;
+import org.eclipse.jetty.util.IO;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * Class Data Sharing support of the runner.
+ * <p>
+ * A training run starts the server in a child JVM, which hits the warm-up URLs, writes the list of classes defined by
+ * each {@link UberJarURLClassLoader} and exits, so that the JVM dumps an AppCDS archive. Later starts with the archive
+ * map JDK and server classes from it and preload the listed application classes in parallel with context startup.
+ */
+public class ClassDataSharing {
+    public static final String DEFAULT_ARCHIVE_NAME = "uberjar.jsa";
+    public static final String CLASS_LIST_SUFFIX = ".classlist";
+
+    protected static final String TRAINING_PROPERTY = "uberjar.cds.training";
+    protected static final String CLASS_LIST_HEADER = "# uberjar class list 1";
+    protected static final List<String> SKIPPED_JVM_ARGS = Arrays.asList("-XX:SharedArchiveFile", "-XX:ArchiveClassesAtExit",
+            "-XX:DumpLoadedClassList", "-XX:SharedClassListFile", "-Xshare", "-agentlib:jdwp", "-D" + TRAINING_PROPERTY);
+
+    private ClassDataSharing() {
+    }
+
+    /**
+     * @return true in the child JVM started by {@link #train(String[], File)}
+     */
+    public static boolean isTrainingProcess() {
+        return Boolean.getBoolean(TRAINING_PROPERTY);
+    }
+
+    public static File getClassListFile(File archive) {
+        return new File(archive.getPath() + CLASS_LIST_SUFFIX);
+    }
+
+    /**
+     * Runs the server with the given arguments in a child JVM recording classes and waits for it to exit.
+     *
+     * @return exit code of the training run
+     */
+    public static int train(String[] args, File archive) throws IOException, InterruptedException {
+        int javaVersion = getJavaVersion();
+        File jdkClassList = new File(archive.getPath() + ".jdk" + CLASS_LIST_SUFFIX);
+        List<String> command = new ArrayList<>();
+        command.add(getJavaExecutable());
+        for (String jvmArg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (SKIPPED_JVM_ARGS.stream().noneMatch(jvmArg::startsWith)) {
+                command.add(jvmArg);
+            }
+        }
+        command.add("-D" + TRAINING_PROPERTY + "=true");
+        if (javaVersion >= 13) {
+            command.add("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath());
+        } else if (javaVersion >= 10) {
+            command.add("-XX:DumpLoadedClassList=" + jdkClassList.getAbsolutePath());
+        } else {
+            System.out.println(format("Java %d does not support AppCDS archives, only the class list is recorded", javaVersion));
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ServerRunner.class.getName());
+        command.addAll(Arrays.asList(args));
+
+        System.out.println("Starting CDS training run");
+        int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (exitCode != 0 || javaVersion < 10) {
+            return exitCode;
+        }
+        if (javaVersion < 13) {
+            exitCode = dumpStaticArchive(javaVersion, jdkClassList, archive);
+            jdkClassList.delete();
+            if (exitCode != 0) {
+                return exitCode;
+            }
+        }
+        System.out.println(format("CDS archive written to %s, start the server with -XX:SharedArchiveFile=%s -cdsArchive %s",
+                archive, archive.getAbsolutePath(), archive));
+        return 0;
+    }
+
+    protected static int dumpStaticArchive(int javaVersion, File jdkClassList, File archive)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(getJavaExecutable());
+        command.add("-Xshare:dump");
+        if (javaVersion == 10) {
+            command.add("-XX:+UseAppCDS");
+        }
+        command.add("-XX:SharedClassListFile=" + jdkClassList.getAbsolutePath());
+        command.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        return new ProcessBuilder(command).inheritIO().start().waitFor();
+    }
+
+    /**
+     * Requests the warm-up URLs, one per line, paths are resolved against the given base URL.
+     */
+    public static void warmUp(File warmupUrls, String baseUrl) throws IOException {
+        for (String line : readLines(warmupUrls)) {
+            String location = line.startsWith("/") ? baseUrl + line : line;
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(location).openConnection();
+                int status = connection.getResponseCode();
+                InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+                if (in != null) {
+                    try (InputStream body = in) {
+                        IO.copy(body, IO.getNullStream());
+                    }
+                }
+                System.out.println(format("Warm-up %s: %d", location, status));
+            } catch (IOException e) {
+                System.out.println(format("Warm-up %s failed: %s", location, e));
+            }
+        }
+    }
+
+    public static void writeClassList(File classList, Collection<UberJarURLClassLoader> classLoaders) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(classList), StandardCharsets.UTF_8)) {
+            writer.write(CLASS_LIST_HEADER);
+            writer.write('\n');
+            for (UberJarURLClassLoader classLoader : classLoaders) {
+                for (String className : classLoader.getLoadedClassNames()) {
+                    writer.write(classLoader.getName());
+                    writer.write(' ');
+                    writer.write(className);
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads classes of the class list in background threads, one per class loader.
+     */
+    public static void preload(File classList, Map<String, ? extends ClassLoader> classLoaders) throws IOException {
+        Map<String, List<String>> classNames = new LinkedHashMap<>();
+        for (String line : readLines(classList)) {
+            int separator = line.indexOf(' ');
+            if (separator > 0 && classLoaders.containsKey(line.substring(0, separator))) {
+                classNames.computeIfAbsent(line.substring(0, separator), name -> new ArrayList<>())
+                        .add(line.substring(separator + 1));
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : classNames.entrySet()) {
+            ClassLoader classLoader = classLoaders.get(entry.getKey());
+            Thread thread = new Thread(() -> {
+                for (String className : entry.getValue()) {
+                    try {
+                        Class.forName(className, false, classLoader);
+                    } catch (ClassNotFoundException | LinkageError e) {
+                        // the class will fail again when the application loads it
+                    }
+                }
+            }, "class-preload-" + entry.getKey());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Prints a hint if the JVM has not been started with the archive.
+     */
+    public static void checkArchive(File archive) {
+        if (getJavaVersion() < 10) {
+            System.out.println(format("Java %d does not support AppCDS archives, %s is not used", getJavaVersion(), archive));
+            return;
+        }
+        try {
+            HotSpotDiagnosticMXBean diagnosticBean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            VMOption archiveOption = diagnosticBean.getVMOption("SharedArchiveFile");
+            String archivePath = archiveOption.getValue();
+            if (archivePath != null && !archivePath.isEmpty()
+                    && new File(archivePath).getCanonicalFile().equals(archive.getCanonicalFile())
+                    && Boolean.parseBoolean(diagnosticBean.getVMOption("UseSharedSpaces").getValue())) {
+                return;
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            // option is not available in this JVM
+        }
+        System.out.println(format("CDS archive %s is not in use, start the JVM with -XX:SharedArchiveFile=%s",
+                archive, archive.getAbsolutePath()));
+    }
+
+    public static int getJavaVersion() {
+        String version = System.getProperty("java.specification.version");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return 8;
+        }
+    }
+
+    protected static String getJavaExecutable() {
+        return new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+    }
+
+    protected static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+}
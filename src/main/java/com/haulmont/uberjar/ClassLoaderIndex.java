@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+import static com.haulmont.uberjar.CubaJettyUtils.PATH_DELIMITER;
+
+/**
+ * Names of all entries owned by the URLs of a class loader, so that lookups and misses
+ * are answered without touching the jar.
+ */
+class ClassLoaderIndex {
+    private static final String JAR_SEPARATOR = "!/";
+
+    private final Map<String, Integer> resources = new HashMap<>();
+    private final Map<String, Integer> packages = new HashMap<>();
+
+    private ClassLoaderIndex() {
+    }
+
+    /**
+     * @param uberJarIndex build-time index of the uber jar, used instead of scanning jar URLs it covers
+     * @return index of the given URLs or null if one of them can't be indexed
+     */
+    public static ClassLoaderIndex build(URL[] urls, UberJarIndex uberJarIndex) throws IOException {
+        ClassLoaderIndex index = new ClassLoaderIndex();
+        for (int i = 0; i < urls.length; i++) {
+            if (!index.addUrl(urls[i], i, uberJarIndex)) {
+                return null;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return position of the first URL containing the resource or -1
+     */
+    public int findResource(String name) {
+        Integer position = resources.get(name);
+        if (position != null) {
+            return position;
+        }
+        if (name.endsWith(PATH_DELIMITER)) {
+            // directories without own entries exist through the entries inside them
+            position = packages.get(name.substring(0, name.length() - 1));
+            if (position != null) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    protected boolean addUrl(URL url, int position, UberJarIndex uberJarIndex) throws IOException {
+        if ("jar".equals(url.getProtocol())) {
+            String file = url.getFile();
+            int separator = file.indexOf(JAR_SEPARATOR);
+            if (separator < 0) {
+                return false;
+            }
+            String prefix = file.substring(separator + JAR_SEPARATOR.length());
+            if (addIndexedEntries(uberJarIndex, prefix, position)) {
+                return true;
+            }
+            URL jarUrl = new URL(file.substring(0, separator));
+            if (!"file".equals(jarUrl.getProtocol())) {
+                return false;
+            }
+            try (JarFile jarFile = new JarFile(toFile(jarUrl))) {
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    addEntry(entries.nextElement().getName(), prefix, position);
+                }
+            }
+            return true;
+        } else if (MappedJarURLs.isMappedURL(url)) {
+            String prefix = MappedJarURLs.getEntryName(url);
+            if (addIndexedEntries(uberJarIndex, prefix, position)) {
+                return true;
+            }
+            for (String name : MappedJarFile.open(MappedJarURLs.getJarFile(url)).getNames()) {
+                addEntry(name, prefix, position);
+            }
+            return true;
+        } else if ("file".equals(url.getProtocol())) {
+            Path root = toFile(url).toPath();
+            if (!Files.isDirectory(root)) {
+                return false;
+            }
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.filter(path -> !path.equals(root)).forEach(path -> {
+                    String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+                    addResource(Files.isDirectory(path) ? name + PATH_DELIMITER : name, position);
+                });
+            }
+            return true;
+        }
+        return false;
+    }
+
+    protected boolean addIndexedEntries(UberJarIndex uberJarIndex, String prefix, int position) {
+        List<String> indexedEntries = uberJarIndex != null ? uberJarIndex.getEntries(prefix) : null;
+        if (indexedEntries == null) {
+            return false;
+        }
+        for (String name : indexedEntries) {
+            addResource(name, position);
+        }
+        return true;
+    }
+
+    protected void addEntry(String name, String prefix, int position) {
+        if (name.startsWith(prefix) && name.length() > prefix.length()) {
+            addResource(name.substring(prefix.length()), position);
+        }
+    }
+
+    protected void addResource(String name, int position) {
+        resources.putIfAbsent(name, position);
+        int packageEnd = name.endsWith(PATH_DELIMITER) ? name.length() - 1 : name.lastIndexOf('/');
+        if (packageEnd > 0) {
+            packages.putIfAbsent(name.substring(0, packageEnd), position);
+        }
+    }
+
+    protected static File toFile(URL url) throws IOException {
+        try {
+            return Paths.get(url.toURI()).toFile();
+        } catch (URISyntaxException e) {
+            throw new IOException("Unable to convert " + url + " to file", e);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of requests handled by the wrapped context at the same time, so that one application
+ * can't take all threads of the server pool.
+ * <p>
+ * Requests above the limit are suspended without holding a thread and resumed in arrival order when a running
+ * request completes. Requests that don't fit into the queue or wait longer than the queue timeout get 503.
+ */
+public class ContextBulkhead extends HandlerWrapper implements ContextBulkheadMBean {
+    public static final String OBJECT_NAME_PREFIX = "com.haulmont.uberjar:type=ContextBulkhead,name=";
+
+    protected final String name;
+    protected final ContextHandler context;
+    protected final int maxRequests;
+    protected final int maxQueuedRequests;
+    protected final long queueTimeout;
+    protected final String permitAttribute;
+
+    protected final Semaphore permits;
+    protected final Queue<AsyncContext> queue = new ConcurrentLinkedQueue<>();
+    protected final AtomicInteger queuedRequests = new AtomicInteger();
+    protected final LongAdder rejectedRequests = new LongAdder();
+    protected final LongAdder timedOutRequests = new LongAdder();
+
+    /**
+     * @param queueTimeout max time in milliseconds a request waits in the queue
+     */
+    public ContextBulkhead(String name, ContextHandler context, int maxRequests, int maxQueuedRequests, long queueTimeout) {
+        this.name = name;
+        this.context = context;
+        this.maxRequests = maxRequests;
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.queueTimeout = queueTimeout;
+        this.permitAttribute = ContextBulkhead.class.getName() + "." + name;
+        this.permits = new Semaphore(maxRequests, true);
+        setHandler(context);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        CubaJettyUtils.registerMBean(this, OBJECT_NAME_PREFIX + name);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        CubaJettyUtils.unregisterMBean(OBJECT_NAME_PREFIX + name);
+        super.doStop();
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        if (baseRequest.getAttribute(permitAttribute) != null && baseRequest.getDispatcherType() == DispatcherType.ASYNC) {
+            // resumed from the queue with a permit handed over by a completed request
+            baseRequest.removeAttribute(permitAttribute);
+            baseRequest.setDispatcherType(DispatcherType.REQUEST);
+            handleWithPermit(target, baseRequest, request, response);
+            return;
+        }
+        if (baseRequest.getDispatcherType() != DispatcherType.REQUEST || !context.checkContextPath(target)) {
+            super.handle(target, baseRequest, request, response);
+            return;
+        }
+        if (permits.tryAcquire()) {
+            handleWithPermit(target, baseRequest, request, response);
+            return;
+        }
+        if (queuedRequests.incrementAndGet() > maxQueuedRequests) {
+            queuedRequests.decrementAndGet();
+            reject(baseRequest, response);
+            return;
+        }
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(queueTimeout);
+        asyncContext.addListener(new QueueListener());
+        queue.add(asyncContext);
+        // a permit may have been released before the request has been queued
+        if (permits.tryAcquire()) {
+            release();
+        }
+    }
+
+    protected void handleWithPermit(String target, Request baseRequest, HttpServletRequest request,
+                                    HttpServletResponse response) throws IOException, ServletException {
+        boolean async = false;
+        try {
+            super.handle(target, baseRequest, request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new PermitListener());
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Hands the permit over to the oldest queued request or returns it.
+     */
+    protected void release() {
+        AsyncContext asyncContext;
+        while ((asyncContext = queue.poll()) != null) {
+            queuedRequests.decrementAndGet();
+            try {
+                asyncContext.getRequest().setAttribute(permitAttribute, Boolean.TRUE);
+                asyncContext.dispatch();
+                return;
+            } catch (IllegalStateException e) {
+                // the request has timed out or failed in the meantime
+            }
+        }
+        permits.release();
+    }
+
+    protected void reject(Request baseRequest, HttpServletResponse response) throws IOException {
+        rejectedRequests.increment();
+        baseRequest.setHandled(true);
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    @Override
+    public String getContextPath() {
+        return context.getContextPath();
+    }
+
+    @Override
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    @Override
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    @Override
+    public int getActiveRequests() {
+        return maxRequests - permits.availablePermits();
+    }
+
+    @Override
+    public int getQueuedRequests() {
+        return Math.max(0, queuedRequests.get());
+    }
+
+    @Override
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    @Override
+    public long getTimedOutRequests() {
+        return timedOutRequests.sum();
+    }
+
+    protected class QueueListener implements AsyncListener {
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            AsyncContext asyncContext = event.getAsyncContext();
+            if (queue.remove(asyncContext)) {
+                queuedRequests.decrementAndGet();
+                timedOutRequests.increment();
+                ((HttpServletResponse) asyncContext.getResponse()).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                asyncContext.complete();
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            if (queue.remove(event.getAsyncContext())) {
+                queuedRequests.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    protected class PermitListener implements AsyncListener {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            if (released.compareAndSet(false, true)) {
+                release();
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // the application has restarted async processing, keep the permit until it completes
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -16,26 +16,78 @@
 
 package com.haulmont.uberjar;
 
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.AbstractHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.plus.webapp.EnvConfiguration;
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.NetworkConnector;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.server.handler.HandlerCollection;
 import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.eclipse.jetty.server.session.DatabaseAdaptor;
+import org.eclipse.jetty.server.session.DefaultSessionCache;
+import org.eclipse.jetty.server.session.DefaultSessionIdManager;
+import org.eclipse.jetty.server.session.HouseKeeper;
+import org.eclipse.jetty.server.session.JDBCSessionDataStore;
+import org.eclipse.jetty.server.session.SessionCache;
+import org.eclipse.jetty.server.session.SessionDataStore;
+import org.eclipse.jetty.server.session.SessionHandler;
+import org.eclipse.jetty.servlet.DefaultServlet;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.webapp.Configuration;
 import org.eclipse.jetty.webapp.WebAppContext;
 import org.eclipse.jetty.webapp.WebXmlConfiguration;
+import org.eclipse.jetty.websocket.jsr356.server.ServerContainer;
 import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainerInitializer;
 import org.eclipse.jetty.xml.XmlConfiguration;
 
+import javax.servlet.ServletException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import static com.haulmont.uberjar.CubaJettyUtils.*;
+import static java.lang.String.format;
 
 public class CubaJettyServer {
+    protected static final String CONNECTION_URL_LIST_PROPERTY = "cuba.connectionUrlList";
+    protected static final String UNIX_SOCKET_CONNECTOR_CLASS = "org.eclipse.jetty.unixsocket.UnixSocketConnector";
+
     protected int port;
     protected int stopPort;
     protected String stopKey;
@@ -44,6 +96,70 @@ public class CubaJettyServer {
     protected String frontContextPath;
     protected URL jettyEnvPathUrl;
     protected URL jettyConfUrl;
+    protected boolean classLoaderIndexEnabled;
+    protected boolean mappedJarEnabled;
+    protected boolean localTransportEnabled;
+    protected int startThreads;
+    protected long staticCacheSize;
+    protected int staticCacheMaxFileSize = 1024 * 1024;
+    protected boolean staticCacheDirect;
+    protected boolean explodedCacheEnabled;
+    protected int minThreads = 8;
+    protected int maxThreads = 200;
+    protected int threadIdleTimeout = 60000;
+    protected int threadQueueSize;
+    protected int reservedThreads = -1;
+    protected boolean virtualThreadsEnabled;
+    protected Map<String, Integer> contextMaxRequests = new HashMap<>();
+    protected Map<String, Integer> contextMaxQueued = new HashMap<>();
+    protected int contextQueueTimeout = 30000;
+    protected Set<String> lazyContexts = new HashSet<>();
+    protected int lazyStartTimeout = 60;
+    protected int contextIdleTimeout;
+    protected int bufferPoolMinCapacity;
+    protected int bufferPoolFactor = 1024;
+    protected int bufferPoolMaxCapacity = AccountingByteBufferPool.DEFAULT_MAX_CAPACITY;
+    protected int bufferPoolMaxQueueLength = -1;
+    protected long bufferPoolMaxHeapMemory;
+    protected long bufferPoolMaxDirectMemory;
+    protected Boolean bufferPoolDirect;
+    protected Map<String, WebSocketSettings> webSocketSettings = new HashMap<>();
+    protected Map<String, WebSocketMetrics> webSocketMetrics = new ConcurrentHashMap<>();
+    protected boolean http2Enabled;
+    protected int http2MaxConcurrentStreams = 128;
+    protected int http2StreamWindow = 512 * 1024;
+    protected int http2SessionWindow = 1024 * 1024;
+    protected int sslPort = 8443;
+    protected File keyStore;
+    protected String keyStorePassword;
+    protected File unixSocket;
+    protected Set<PosixFilePermission> unixSocketPermissions;
+    protected boolean unixSocketOnly;
+    protected int metricsPort;
+    protected String metricsPath;
+    protected String accessLog;
+    protected int accessLogRetainDays = 31;
+    protected int accessLogCapacity = 8192;
+    protected boolean drainEnabled;
+    protected int drainTimeout = 30;
+    protected File sessionStoreDir;
+    protected String sessionDataSource;
+    protected int sessionIdleTimeout = SessionCache.NEVER_EVICT;
+    protected int sessionWritePeriod;
+    protected boolean cdsTraining;
+    protected File cdsArchive;
+    protected File cdsWarmupUrls;
+    protected Map<String, UberJarURLClassLoader> classLoaders = new LinkedHashMap<>();
+    protected StaticResourceCache staticResourceCache;
+    protected RequestMetrics requestMetrics;
+    protected StatisticsHandler statisticsHandler;
+    protected List<ServletContextHandler> contexts = new ArrayList<>();
+    // contexts, or handlers of contexts started on the first request, in start order
+    protected List<Handler> stopOrder = new ArrayList<>();
+    protected List<ServerContainer> webSocketContainers = new CopyOnWriteArrayList<>();
+    protected UberJarIndex uberJarIndex;
+    protected ExplodedJarCache explodedJarCache;
+    protected StartupReport startupReport = new StartupReport();
 
     public int getPort() {
         return port;
@@ -93,6 +209,454 @@ public class CubaJettyServer {
         this.jettyConfUrl = jettyConfUrl;
     }
 
+    public boolean isClassLoaderIndexEnabled() {
+        return classLoaderIndexEnabled;
+    }
+
+    public void setClassLoaderIndexEnabled(boolean classLoaderIndexEnabled) {
+        this.classLoaderIndexEnabled = classLoaderIndexEnabled;
+    }
+
+    public boolean isMappedJarEnabled() {
+        return mappedJarEnabled;
+    }
+
+    public void setMappedJarEnabled(boolean mappedJarEnabled) {
+        this.mappedJarEnabled = mappedJarEnabled;
+    }
+
+    public boolean isLocalTransportEnabled() {
+        return localTransportEnabled;
+    }
+
+    public void setLocalTransportEnabled(boolean localTransportEnabled) {
+        this.localTransportEnabled = localTransportEnabled;
+    }
+
+    public int getStartThreads() {
+        return startThreads;
+    }
+
+    public void setStartThreads(int startThreads) {
+        this.startThreads = startThreads;
+    }
+
+    public long getStaticCacheSize() {
+        return staticCacheSize;
+    }
+
+    public void setStaticCacheSize(long staticCacheSize) {
+        this.staticCacheSize = staticCacheSize;
+    }
+
+    public int getStaticCacheMaxFileSize() {
+        return staticCacheMaxFileSize;
+    }
+
+    public void setStaticCacheMaxFileSize(int staticCacheMaxFileSize) {
+        this.staticCacheMaxFileSize = staticCacheMaxFileSize;
+    }
+
+    public boolean isStaticCacheDirect() {
+        return staticCacheDirect;
+    }
+
+    public void setStaticCacheDirect(boolean staticCacheDirect) {
+        this.staticCacheDirect = staticCacheDirect;
+    }
+
+    public boolean isExplodedCacheEnabled() {
+        return explodedCacheEnabled;
+    }
+
+    public void setExplodedCacheEnabled(boolean explodedCacheEnabled) {
+        this.explodedCacheEnabled = explodedCacheEnabled;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public void setMinThreads(int minThreads) {
+        this.minThreads = minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public int getThreadIdleTimeout() {
+        return threadIdleTimeout;
+    }
+
+    public void setThreadIdleTimeout(int threadIdleTimeout) {
+        this.threadIdleTimeout = threadIdleTimeout;
+    }
+
+    public int getThreadQueueSize() {
+        return threadQueueSize;
+    }
+
+    public void setThreadQueueSize(int threadQueueSize) {
+        this.threadQueueSize = threadQueueSize;
+    }
+
+    public int getReservedThreads() {
+        return reservedThreads;
+    }
+
+    public void setReservedThreads(int reservedThreads) {
+        this.reservedThreads = reservedThreads;
+    }
+
+    public boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
+
+    public void setVirtualThreadsEnabled(boolean virtualThreadsEnabled) {
+        this.virtualThreadsEnabled = virtualThreadsEnabled;
+    }
+
+    public Map<String, Integer> getContextMaxRequests() {
+        return contextMaxRequests;
+    }
+
+    /**
+     * @param contextMaxRequests max number of concurrent requests by lower case context name: core, web, portal or front
+     */
+    public void setContextMaxRequests(Map<String, Integer> contextMaxRequests) {
+        this.contextMaxRequests = contextMaxRequests;
+    }
+
+    public Map<String, Integer> getContextMaxQueued() {
+        return contextMaxQueued;
+    }
+
+    public void setContextMaxQueued(Map<String, Integer> contextMaxQueued) {
+        this.contextMaxQueued = contextMaxQueued;
+    }
+
+    public int getContextQueueTimeout() {
+        return contextQueueTimeout;
+    }
+
+    public void setContextQueueTimeout(int contextQueueTimeout) {
+        this.contextQueueTimeout = contextQueueTimeout;
+    }
+
+    public Set<String> getLazyContexts() {
+        return lazyContexts;
+    }
+
+    /**
+     * @param lazyContexts lower case names of contexts started on the first request: core, web, portal or front
+     */
+    public void setLazyContexts(Set<String> lazyContexts) {
+        this.lazyContexts = lazyContexts;
+    }
+
+    public int getLazyStartTimeout() {
+        return lazyStartTimeout;
+    }
+
+    public void setLazyStartTimeout(int lazyStartTimeout) {
+        this.lazyStartTimeout = lazyStartTimeout;
+    }
+
+    public int getContextIdleTimeout() {
+        return contextIdleTimeout;
+    }
+
+    public void setContextIdleTimeout(int contextIdleTimeout) {
+        this.contextIdleTimeout = contextIdleTimeout;
+    }
+
+    public int getBufferPoolMinCapacity() {
+        return bufferPoolMinCapacity;
+    }
+
+    public void setBufferPoolMinCapacity(int bufferPoolMinCapacity) {
+        this.bufferPoolMinCapacity = bufferPoolMinCapacity;
+    }
+
+    public int getBufferPoolFactor() {
+        return bufferPoolFactor;
+    }
+
+    /**
+     * @param bufferPoolFactor capacity step in bytes between the buckets of the buffer pool
+     */
+    public void setBufferPoolFactor(int bufferPoolFactor) {
+        this.bufferPoolFactor = bufferPoolFactor;
+    }
+
+    public int getBufferPoolMaxCapacity() {
+        return bufferPoolMaxCapacity;
+    }
+
+    public void setBufferPoolMaxCapacity(int bufferPoolMaxCapacity) {
+        this.bufferPoolMaxCapacity = bufferPoolMaxCapacity;
+    }
+
+    public int getBufferPoolMaxQueueLength() {
+        return bufferPoolMaxQueueLength;
+    }
+
+    public void setBufferPoolMaxQueueLength(int bufferPoolMaxQueueLength) {
+        this.bufferPoolMaxQueueLength = bufferPoolMaxQueueLength;
+    }
+
+    public long getBufferPoolMaxHeapMemory() {
+        return bufferPoolMaxHeapMemory;
+    }
+
+    /**
+     * @param bufferPoolMaxHeapMemory max bytes of heap buffers retained by the pool, 0 for a quarter of the max heap
+     */
+    public void setBufferPoolMaxHeapMemory(long bufferPoolMaxHeapMemory) {
+        this.bufferPoolMaxHeapMemory = bufferPoolMaxHeapMemory;
+    }
+
+    public long getBufferPoolMaxDirectMemory() {
+        return bufferPoolMaxDirectMemory;
+    }
+
+    /**
+     * @param bufferPoolMaxDirectMemory max bytes of direct buffers retained by the pool, 0 for a quarter of the max heap
+     */
+    public void setBufferPoolMaxDirectMemory(long bufferPoolMaxDirectMemory) {
+        this.bufferPoolMaxDirectMemory = bufferPoolMaxDirectMemory;
+    }
+
+    public Boolean getBufferPoolDirect() {
+        return bufferPoolDirect;
+    }
+
+    /**
+     * @param bufferPoolDirect true or false to use only direct or heap buffers, null to let connections choose
+     */
+    public void setBufferPoolDirect(Boolean bufferPoolDirect) {
+        this.bufferPoolDirect = bufferPoolDirect;
+    }
+
+    public Map<String, WebSocketSettings> getWebSocketSettings() {
+        return webSocketSettings;
+    }
+
+    /**
+     * @param webSocketSettings WebSocket settings by lower case context name: core, web, portal or front
+     */
+    public void setWebSocketSettings(Map<String, WebSocketSettings> webSocketSettings) {
+        this.webSocketSettings = webSocketSettings;
+    }
+
+    /**
+     * @return WebSocket settings of the context, created if not set yet
+     */
+    public WebSocketSettings getWebSocketSettings(String name) {
+        return webSocketSettings.computeIfAbsent(name.toLowerCase(), key -> new WebSocketSettings());
+    }
+
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    public void setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+    }
+
+    public int getHttp2MaxConcurrentStreams() {
+        return http2MaxConcurrentStreams;
+    }
+
+    public void setHttp2MaxConcurrentStreams(int http2MaxConcurrentStreams) {
+        this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+    }
+
+    public int getHttp2StreamWindow() {
+        return http2StreamWindow;
+    }
+
+    public void setHttp2StreamWindow(int http2StreamWindow) {
+        this.http2StreamWindow = http2StreamWindow;
+    }
+
+    public int getHttp2SessionWindow() {
+        return http2SessionWindow;
+    }
+
+    public void setHttp2SessionWindow(int http2SessionWindow) {
+        this.http2SessionWindow = http2SessionWindow;
+    }
+
+    public int getSslPort() {
+        return sslPort;
+    }
+
+    public void setSslPort(int sslPort) {
+        this.sslPort = sslPort;
+    }
+
+    public File getKeyStore() {
+        return keyStore;
+    }
+
+    public void setKeyStore(File keyStore) {
+        this.keyStore = keyStore;
+    }
+
+    public String getKeyStorePassword() {
+        return keyStorePassword;
+    }
+
+    public void setKeyStorePassword(String keyStorePassword) {
+        this.keyStorePassword = keyStorePassword;
+    }
+
+    public File getUnixSocket() {
+        return unixSocket;
+    }
+
+    public void setUnixSocket(File unixSocket) {
+        this.unixSocket = unixSocket;
+    }
+
+    public Set<PosixFilePermission> getUnixSocketPermissions() {
+        return unixSocketPermissions;
+    }
+
+    public void setUnixSocketPermissions(Set<PosixFilePermission> unixSocketPermissions) {
+        this.unixSocketPermissions = unixSocketPermissions;
+    }
+
+    public boolean isUnixSocketOnly() {
+        return unixSocketOnly;
+    }
+
+    public void setUnixSocketOnly(boolean unixSocketOnly) {
+        this.unixSocketOnly = unixSocketOnly;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public String getMetricsPath() {
+        return metricsPath;
+    }
+
+    public void setMetricsPath(String metricsPath) {
+        this.metricsPath = metricsPath;
+    }
+
+    public String getAccessLog() {
+        return accessLog;
+    }
+
+    public void setAccessLog(String accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    public int getAccessLogRetainDays() {
+        return accessLogRetainDays;
+    }
+
+    public void setAccessLogRetainDays(int accessLogRetainDays) {
+        this.accessLogRetainDays = accessLogRetainDays;
+    }
+
+    public int getAccessLogCapacity() {
+        return accessLogCapacity;
+    }
+
+    public void setAccessLogCapacity(int accessLogCapacity) {
+        this.accessLogCapacity = accessLogCapacity;
+    }
+
+    public boolean isDrainEnabled() {
+        return drainEnabled;
+    }
+
+    public void setDrainEnabled(boolean drainEnabled) {
+        this.drainEnabled = drainEnabled;
+    }
+
+    public int getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    public void setDrainTimeout(int drainTimeout) {
+        this.drainTimeout = drainTimeout;
+    }
+
+    public File getSessionStoreDir() {
+        return sessionStoreDir;
+    }
+
+    public void setSessionStoreDir(File sessionStoreDir) {
+        this.sessionStoreDir = sessionStoreDir;
+    }
+
+    public String getSessionDataSource() {
+        return sessionDataSource;
+    }
+
+    public void setSessionDataSource(String sessionDataSource) {
+        this.sessionDataSource = sessionDataSource;
+    }
+
+    public int getSessionIdleTimeout() {
+        return sessionIdleTimeout;
+    }
+
+    public void setSessionIdleTimeout(int sessionIdleTimeout) {
+        this.sessionIdleTimeout = sessionIdleTimeout;
+    }
+
+    public int getSessionWritePeriod() {
+        return sessionWritePeriod;
+    }
+
+    public void setSessionWritePeriod(int sessionWritePeriod) {
+        this.sessionWritePeriod = sessionWritePeriod;
+    }
+
+    public boolean isCdsTraining() {
+        return cdsTraining;
+    }
+
+    public void setCdsTraining(boolean cdsTraining) {
+        this.cdsTraining = cdsTraining;
+    }
+
+    public File getCdsArchive() {
+        return cdsArchive;
+    }
+
+    public void setCdsArchive(File cdsArchive) {
+        this.cdsArchive = cdsArchive;
+    }
+
+    public File getCdsWarmupUrls() {
+        return cdsWarmupUrls;
+    }
+
+    public void setCdsWarmupUrls(File cdsWarmupUrls) {
+        this.cdsWarmupUrls = cdsWarmupUrls;
+    }
+
+    public StartupReport getStartupReport() {
+        return startupReport;
+    }
+
     public int getStopPort() {
         return stopPort;
     }
@@ -117,14 +681,24 @@ public class CubaJettyServer {
         if ("/".equals(System.getProperty("app.home"))) {
             System.setProperty("app.home", "");
         }
-        if (stopPort > 0) {
+        if (stopPort > 0 && !drainEnabled) {
             System.setProperty("STOP.PORT", Integer.toString(stopPort));
             System.setProperty("STOP.KEY", stopKey);
             System.setProperty("STOP.HOST", "127.0.0.1");
         }
         try {
+            StartupReport.Timer createTimer = startupReport.startTimer("Create server");
             Server server = createServer();
+            createTimer.stop();
             server.start();
+            startupReport.finish();
+            if (cdsTraining) {
+                completeCdsTraining(server);
+                return;
+            }
+            if (drainEnabled) {
+                startGracefulShutdown(server);
+            }
             server.join();
         } catch (Exception e) {
             e.printStackTrace(System.out);
@@ -133,16 +707,67 @@ public class CubaJettyServer {
 
     protected Server createServer() throws Exception {
         ClassLoader serverClassLoader = Thread.currentThread().getContextClassLoader();
-        ClassLoader sharedClassLoader = new UberJarURLClassLoader("Shared",
-                pathsToURLs(serverClassLoader, SHARED_CLASS_PATH_IN_JAR), serverClassLoader);
+        // resolves application paths, either in the uber jar itself or in its exploded copy
+        ClassLoader contentClassLoader = explodedCacheEnabled ? createExplodedClassLoader(serverClassLoader) : serverClassLoader;
+        uberJarIndex = UberJarIndex.get(contentClassLoader);
+        if (uberJarIndex != null) {
+            System.out.println(format("Using uber jar index %s", UberJarIndex.INDEX_PATH_IN_JAR));
+        }
+        if (mappedJarEnabled) {
+            CubaJettyUtils.registerProtocolHandlers();
+        }
+        if (staticCacheSize > 0) {
+            staticResourceCache = new StaticResourceCache(staticCacheSize, staticCacheMaxFileSize, staticCacheDirect);
+            CubaJettyUtils.registerMBean(staticResourceCache, StaticResourceCache.OBJECT_NAME);
+        }
+        ClassLoader sharedClassLoader = createClassLoader("Shared",
+                pathsToURLs(contentClassLoader, SHARED_CLASS_PATH_IN_JAR), serverClassLoader);
         Server server;
+        StartupReport.Timer configureTimer = startupReport.startTimer("Configure server");
         if (jettyConfUrl != null) {
             XmlConfiguration xmlConfiguration = new XmlConfiguration(jettyConfUrl);
             server = (Server) xmlConfiguration.configure();
         } else {
-            server = new Server(port);
+            server = new Server(createThreadPool());
+            // connectors take the buffer pool of the server, including the ones added below
+            server.addBean(createByteBufferPool());
+            addConnectors(server);
+        }
+        if (localTransportEnabled) {
+            LocalTransport.install(server);
+        }
+        if (accessLog != null) {
+            File accessLogDir = new File(accessLog).getAbsoluteFile().getParentFile();
+            if (accessLogDir != null && !accessLogDir.isDirectory() && !accessLogDir.mkdirs()) {
+                System.out.println(format("Unable to create access log directory %s", accessLogDir));
+            }
+            server.setRequestLog(new AsyncRequestLog(accessLog, accessLogRetainDays, accessLogCapacity));
         }
-        server.setStopAtShutdown(true);
+        if (sessionIdleTimeout > 0) {
+            // idle sessions are evicted by the house keeper, which runs every 10 minutes by default
+            HouseKeeper houseKeeper = new HouseKeeper();
+            houseKeeper.setIntervalSec(Math.min(sessionIdleTimeout, TimeUnit.MILLISECONDS.toSeconds(HouseKeeper.DEFAULT_PERIOD_MS)));
+            DefaultSessionIdManager sessionIdManager = new DefaultSessionIdManager(server);
+            sessionIdManager.setSessionHouseKeeper(houseKeeper);
+            server.setSessionIdManager(sessionIdManager);
+        }
+        Connector metricsConnector = null;
+        if (metricsPort > 0 || metricsPath != null) {
+            requestMetrics = new RequestMetrics();
+            if (metricsPort > 0) {
+                ServerConnector connector = new ServerConnector(server);
+                connector.setName("metrics");
+                connector.setPort(metricsPort);
+                server.addConnector(connector);
+                metricsConnector = connector;
+            }
+        }
+        configureTimer.stop();
+        for (Connector connector : server.getConnectors()) {
+            startupReport.watch(connector, format("Open connector %s", getConnectorName(connector)));
+        }
+        // drain mode replaces Jetty's shutdown hook with its own
+        server.setStopAtShutdown(!drainEnabled);
         List<Handler> handlers = new ArrayList<>();
         HandlerWrapper handlerWrapper = null;
         if (server.getHandler() != null) {
@@ -152,99 +777,584 @@ public class CubaJettyServer {
                 handlers.add(server.getHandler());
             }
         }
-        if (CubaJettyUtils.hasCoreApp(serverClassLoader)) {
-            String coreContextPath = contextPath;
-            if (isSingleJar(serverClassLoader)) {
-                if (PATH_DELIMITER.equals(contextPath)) {
-                    coreContextPath = PATH_DELIMITER + "app-core";
-                } else {
-                    coreContextPath = contextPath + "-core";
-                }
+        Handler coreContext = null;
+        Handler webContext = null;
+        Handler portalContext = null;
+        if (CubaJettyUtils.hasCoreApp(contentClassLoader)) {
+            String coreContextPath = getCoreContextPath(contentClassLoader);
+            if (localTransportEnabled && isSingleJar(contentClassLoader)
+                    && System.getProperty(CONNECTION_URL_LIST_PROPERTY) == null) {
+                // Web and Portal call Core of the same jar in-process instead of through a socket
+                System.setProperty(CONNECTION_URL_LIST_PROPERTY, LocalTransport.getUrl(coreContextPath));
             }
-            handlers.add(createAppContext("Core", serverClassLoader, sharedClassLoader, CORE_PATH_IN_JAR, coreContextPath));
+            if (isLazy("Core")) {
+                coreContext = createLazyContext("Core", coreContextPath, () ->
+                        createAppContext("Core", contentClassLoader, sharedClassLoader, CORE_PATH_IN_JAR, coreContextPath));
+                stopOrder.add(coreContext);
+            } else {
+                WebAppContext appContext = createAppContext("Core", contentClassLoader, sharedClassLoader, CORE_PATH_IN_JAR, coreContextPath);
+                contexts.add(appContext);
+                stopOrder.add(appContext);
+                coreContext = wrapContext("Core", appContext);
+            }
+            handlers.add(coreContext);
         }
-        if (hasWebApp(serverClassLoader)) {
-            handlers.add(createAppContext("Web", serverClassLoader, sharedClassLoader, WEB_PATH_IN_JAR, contextPath));
+        if (hasWebApp(contentClassLoader)) {
+            if (isLazy("Web")) {
+                webContext = createLazyContext("Web", contextPath, () ->
+                        createAppContext("Web", contentClassLoader, sharedClassLoader, WEB_PATH_IN_JAR, contextPath));
+                stopOrder.add(webContext);
+            } else {
+                WebAppContext appContext = createAppContext("Web", contentClassLoader, sharedClassLoader, WEB_PATH_IN_JAR, contextPath);
+                contexts.add(appContext);
+                stopOrder.add(appContext);
+                webContext = wrapContext("Web", appContext);
+            }
+            handlers.add(webContext);
         }
-        if (hasPortalApp(serverClassLoader)) {
-            String portalContextPath = contextPath;
-            if (isSingleJar(serverClassLoader)) {
-                portalContextPath = this.portalContextPath;
+        if (hasPortalApp(contentClassLoader)) {
+            String portalContextPath = isSingleJar(contentClassLoader) ? this.portalContextPath : contextPath;
+            if (isLazy("Portal")) {
+                portalContext = createLazyContext("Portal", portalContextPath, () ->
+                        createAppContext("Portal", contentClassLoader, sharedClassLoader, PORTAL_PATH_IN_JAR, portalContextPath));
+                stopOrder.add(portalContext);
+            } else {
+                WebAppContext appContext = createAppContext("Portal", contentClassLoader, sharedClassLoader, PORTAL_PATH_IN_JAR, portalContextPath);
+                contexts.add(appContext);
+                stopOrder.add(appContext);
+                portalContext = wrapContext("Portal", appContext);
             }
-            handlers.add(createAppContext("Portal", serverClassLoader, sharedClassLoader, PORTAL_PATH_IN_JAR, portalContextPath));
+            handlers.add(portalContext);
         }
-        if (hasFrontApp(serverClassLoader)) {
-            handlers.add(createFrontAppContext(serverClassLoader, sharedClassLoader));
+        if (hasFrontApp(contentClassLoader)) {
+            setFrontUrlProperties();
+            if (isLazy("Front")) {
+                Handler frontContext = createLazyContext("Front", frontContextPath, () ->
+                        createFrontAppContext(contentClassLoader, sharedClassLoader));
+                stopOrder.add(frontContext);
+                handlers.add(frontContext);
+            } else {
+                WebAppContext frontContext = createFrontAppContext(contentClassLoader, sharedClassLoader);
+                contexts.add(frontContext);
+                stopOrder.add(frontContext);
+                handlers.add(wrapContext("Front", frontContext));
+            }
         }
 
-        HandlerCollection handlerCollection = new HandlerCollection();
+        HandlerCollection handlerCollection;
+        if (startThreads > 1) {
+            ParallelStartHandlerCollection parallelStartCollection = new ParallelStartHandlerCollection(startThreads);
+            if (coreContext != null) {
+                // Web and Portal connect to Core, so they start after it
+                if (webContext != null) {
+                    parallelStartCollection.addDependency(webContext, coreContext);
+                }
+                if (portalContext != null) {
+                    parallelStartCollection.addDependency(portalContext, coreContext);
+                }
+            }
+            handlerCollection = parallelStartCollection;
+        } else {
+            handlerCollection = new HandlerCollection();
+        }
         handlerCollection.setHandlers(handlers.toArray(new Handler[0]));
+        Handler rootHandler = handlerCollection;
+        if (requestMetrics != null) {
+            PrometheusMetricsHandler metricsHandler = new PrometheusMetricsHandler(requestMetrics, metricsPath, metricsConnector);
+            metricsHandler.setHandler(handlerCollection);
+            rootHandler = metricsHandler;
+        }
+        if (drainEnabled) {
+            // counts requests in progress while draining
+            statisticsHandler = new StatisticsHandler();
+            statisticsHandler.setHandler(rootHandler);
+            rootHandler = statisticsHandler;
+        }
         if (handlerWrapper != null) {
-            handlerWrapper.setHandler(handlerCollection);
+            handlerWrapper.setHandler(rootHandler);
             server.setHandler(handlerWrapper);
         } else {
-            server.setHandler(handlerCollection);
+            server.setHandler(rootHandler);
         }
 
-        for (Handler handler : handlers) {
-            if (handler instanceof ServletContextHandler) {
-                WebSocketServerContainerInitializer.configureContext((ServletContextHandler) handler);
+        for (ServletContextHandler contextHandler : contexts) {
+            StartupReport.Timer webSocketTimer = startupReport.startTimer(
+                    format("Configure WebSocket %s", contextHandler.getContextPath()));
+            webSocketContainers.add(configureWebSocket(getContextName(contextHandler), contextHandler));
+            webSocketTimer.stop();
+        }
+
+        if (cdsArchive != null && !cdsTraining) {
+            ClassDataSharing.checkArchive(cdsArchive);
+            File classList = ClassDataSharing.getClassListFile(cdsArchive);
+            if (classList.isFile()) {
+                ClassDataSharing.preload(classList, classLoaders);
+            } else {
+                System.out.println(format("Class list %s not found, classes are not preloaded", classList));
             }
         }
 
         return server;
     }
 
+    protected String getCoreContextPath(ClassLoader contentClassLoader) {
+        if (isSingleJar(contentClassLoader)) {
+            return PATH_DELIMITER.equals(contextPath) ? PATH_DELIMITER + "app-core" : contextPath + "-core";
+        }
+        return contextPath;
+    }
+
     protected WebAppContext createAppContext(String name, ClassLoader serverClassLoader, ClassLoader sharedClassLoader,
                                              String appPathInJar, String contextPath) throws URISyntaxException {
-        ClassLoader appClassLoader = new UberJarURLClassLoader(name,
+        ClassLoader appClassLoader = createClassLoader(name,
                 pathsToURLs(serverClassLoader, getAppClassesPath(appPathInJar)), sharedClassLoader);
 
         WebAppContext appContext = new WebAppContext();
         appContext.setConfigurations(new Configuration[]{new WebXmlConfiguration(), createEnvConfiguration()});
         appContext.setContextPath(contextPath);
         appContext.setClassLoader(appClassLoader);
+        startupReport.watch(appContext, format("Start context %s", name));
 
         setResourceBase(serverClassLoader, appContext, appPathInJar);
+        appContext.setInitParameter(DefaultServlet.CONTEXT_INIT + "precompressed", "true");
 
         appContext.getSessionHandler().getSessionCookieConfig().setHttpOnly(true);
+        configureSessions(appContext.getSessionHandler());
 
         return appContext;
     }
 
     protected WebAppContext createFrontAppContext(ClassLoader serverClassLoader, ClassLoader sharedClassLoader) throws URISyntaxException {
-        ClassLoader frontClassLoader = new UberJarURLClassLoader("Front",
+        ClassLoader frontClassLoader = createClassLoader("Front",
                 pathsToURLs(serverClassLoader, getAppClassesPath(FRONT_PATH_IN_JAR)), sharedClassLoader);
 
         WebAppContext frontContext = new WebAppContext();
         frontContext.setConfigurations(new Configuration[]{new WebXmlConfiguration()});
         frontContext.setContextPath(frontContextPath);
         frontContext.setClassLoader(frontClassLoader);
+        startupReport.watch(frontContext, "Start context Front");
 
         setResourceBase(serverClassLoader, frontContext, FRONT_PATH_IN_JAR);
+        frontContext.setInitParameter(DefaultServlet.CONTEXT_INIT + "precompressed", "true");
+
+        frontContext.getSessionHandler().getSessionCookieConfig().setHttpOnly(true);
 
+        return frontContext;
+    }
+
+    protected void setFrontUrlProperties() {
         System.setProperty("cuba.front.baseUrl", PATH_DELIMITER.equals(frontContextPath) ? frontContextPath :
                 frontContextPath + PATH_DELIMITER);
         System.setProperty("cuba.front.apiUrl", PATH_DELIMITER.equals(contextPath) ? "/rest/" :
                 contextPath + PATH_DELIMITER + "rest" + PATH_DELIMITER);
+    }
 
-        frontContext.getSessionHandler().getSessionCookieConfig().setHttpOnly(true);
+    protected ServerContainer configureWebSocket(String name, ServletContextHandler context) throws ServletException {
+        ServerContainer container = WebSocketServerContainerInitializer.configureContext(context);
+        WebSocketSettings settings = webSocketSettings.get(name.toLowerCase());
+        if (settings != null) {
+            settings.apply(container);
+        }
+        WebSocketMetrics metrics = webSocketMetrics.computeIfAbsent(name, key -> {
+            WebSocketMetrics contextMetrics = new WebSocketMetrics();
+            CubaJettyUtils.registerMBean(contextMetrics, WebSocketMetrics.OBJECT_NAME_PREFIX + name);
+            return contextMetrics;
+        });
+        // javax.websocket sessions notify the listeners of the container, Jetty API sessions those of the factory
+        container.addSessionListener(metrics);
+        container.getWebSocketServerFactory().addSessionListener(metrics);
+        return container;
+    }
 
-        return frontContext;
+    protected String getContextName(ServletContextHandler context) {
+        ClassLoader classLoader = context.getClassLoader();
+        return classLoader instanceof UberJarURLClassLoader ? ((UberJarURLClassLoader) classLoader).getName() :
+                context.getContextPath();
+    }
+
+    protected boolean isLazy(String name) {
+        return lazyContexts.contains(name.toLowerCase());
+    }
+
+    /**
+     * @return handler that registers the context path now and creates the context on the first request to it
+     */
+    protected Handler createLazyContext(String name, String contextPath, Callable<WebAppContext> contextFactory) {
+        System.out.println(format("Context %s at %s is started on the first request", name, contextPath));
+        return new LazyContextHandler(name, contextPath, TimeUnit.SECONDS.toMillis(lazyStartTimeout),
+                TimeUnit.SECONDS.toMillis(contextIdleTimeout)) {
+            protected ServerContainer webSocketContainer;
+
+            @Override
+            protected WebAppContext createContext() throws Exception {
+                WebAppContext context = contextFactory.call();
+                webSocketContainer = configureWebSocket(name, context);
+                webSocketContainers.add(webSocketContainer);
+                return context;
+            }
+
+            @Override
+            protected Handler wrapContext(WebAppContext context) {
+                return CubaJettyServer.this.wrapContext(name, context);
+            }
+
+            @Override
+            public int getOpenSessions() {
+                WebSocketMetrics metrics = webSocketMetrics.get(name);
+                return metrics != null ? metrics.getOpenSessions() : 0;
+            }
+
+            @Override
+            protected void contextUnloaded(WebAppContext context) {
+                webSocketContainers.remove(webSocketContainer);
+                webSocketContainer = null;
+                closeClassLoader(name);
+            }
+        };
+    }
+
+    protected void configureSessions(SessionHandler sessionHandler) {
+        SessionDataStore sessionDataStore = createSessionDataStore();
+        if (sessionDataStore == null) {
+            return;
+        }
+        if (sessionWritePeriod > 0) {
+            sessionDataStore = new WriteBehindSessionDataStore(sessionDataStore, sessionWritePeriod);
+        }
+        DefaultSessionCache sessionCache = new DefaultSessionCache(sessionHandler);
+        sessionCache.setSessionDataStore(sessionDataStore);
+        sessionCache.setEvictionPolicy(sessionIdleTimeout);
+        sessionCache.setSaveOnInactiveEviction(true);
+        // sessions that no longer deserialize, e.g. after an update of the application, start anew
+        sessionCache.setRemoveUnloadableSessions(true);
+        sessionHandler.setSessionCache(sessionCache);
+    }
+
+    protected SessionDataStore createSessionDataStore() {
+        if (sessionDataSource != null) {
+            DatabaseAdaptor databaseAdaptor = new DatabaseAdaptor();
+            // looked up when the context starts, so java:comp/env names of jettyEnvPath are visible
+            databaseAdaptor.setDatasourceName(sessionDataSource);
+            JDBCSessionDataStore sessionDataStore = new JDBCSessionDataStore();
+            sessionDataStore.setDatabaseAdaptor(databaseAdaptor);
+            return sessionDataStore;
+        }
+        if (sessionStoreDir != null) {
+            BufferedFileSessionDataStore sessionDataStore = new BufferedFileSessionDataStore();
+            sessionDataStore.setStoreDir(sessionStoreDir);
+            sessionDataStore.setDeleteUnrestorableFiles(true);
+            return sessionDataStore;
+        }
+        return null;
+    }
+
+    protected void startGracefulShutdown(Server server) throws IOException {
+        GracefulShutdown gracefulShutdown = new GracefulShutdown(server, statisticsHandler, stopOrder, webSocketContainers,
+                TimeUnit.SECONDS.toMillis(drainTimeout));
+        if (stopPort > 0) {
+            new StopMonitor(stopPort, stopKey, gracefulShutdown, () -> {
+                try {
+                    server.stop();
+                } catch (Exception e) {
+                    e.printStackTrace(System.out);
+                }
+            }).start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> gracefulShutdown.drainAndStop(System.out::println),
+                "GracefulShutdown"));
+        System.out.println(format("Server is drained on stop within %d seconds", drainTimeout));
+    }
+
+    protected ByteBufferPool createByteBufferPool() {
+        AccountingByteBufferPool byteBufferPool = new AccountingByteBufferPool(bufferPoolMinCapacity, bufferPoolFactor,
+                bufferPoolMaxCapacity, bufferPoolMaxQueueLength, bufferPoolMaxHeapMemory, bufferPoolMaxDirectMemory,
+                bufferPoolDirect);
+        CubaJettyUtils.registerMBean(byteBufferPool, AccountingByteBufferPool.OBJECT_NAME);
+        return byteBufferPool;
+    }
+
+    protected void addConnectors(Server server) {
+        HttpConfiguration httpConfiguration = new HttpConfiguration();
+        if (keyStore != null) {
+            httpConfiguration.setSecurePort(sslPort);
+        }
+        if (unixSocket == null || !unixSocketOnly) {
+            ServerConnector connector = new ServerConnector(server, createConnectionFactories(httpConfiguration));
+            connector.setPort(port);
+            server.addConnector(connector);
+        }
+        if (unixSocket != null) {
+            HttpConfiguration unixSocketConfiguration = new HttpConfiguration(httpConfiguration);
+            // the peer is a local process, e.g. a reverse proxy, report it as loopback instead of an empty address
+            InetSocketAddress loopbackAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+            unixSocketConfiguration.addCustomizer((connector, configuration, request) -> request.setRemoteAddr(loopbackAddress));
+            Connector connector = createUnixSocketConnector(server, createConnectionFactories(unixSocketConfiguration));
+            if (connector != null) {
+                server.addConnector(connector);
+            } else if (unixSocketOnly) {
+                throw new IllegalStateException(format("Unable to listen on %s", unixSocket));
+            }
+        }
+        if (keyStore != null) {
+            server.addConnector(createSslConnector(server, httpConfiguration));
+        }
+    }
+
+    protected ConnectionFactory[] createConnectionFactories(HttpConfiguration httpConfiguration) {
+        HttpConnectionFactory http1 = new HttpConnectionFactory(httpConfiguration);
+        if (http2Enabled) {
+            // HTTP/1.1 first, so that plain clients keep working and h2c is reached by upgrade or prior knowledge
+            return new ConnectionFactory[]{http1, configureHttp2(new HTTP2CServerConnectionFactory(httpConfiguration))};
+        }
+        return new ConnectionFactory[]{http1};
+    }
+
+    /**
+     * @return connector of the JDK Unix domain sockets, of jetty-unixsocket when it is on the class path of older Java
+     * versions, or null if neither is available
+     */
+    protected Connector createUnixSocketConnector(Server server, ConnectionFactory[] factories) {
+        if (UnixDomainSocketConnector.isSupported()) {
+            UnixDomainSocketConnector connector = new UnixDomainSocketConnector(server, unixSocket.toPath(), factories);
+            connector.setPermissions(unixSocketPermissions);
+            return connector;
+        }
+        AbstractConnector connector;
+        try {
+            connector = (AbstractConnector) Class.forName(UNIX_SOCKET_CONNECTOR_CLASS)
+                    .getConstructor(Server.class, ConnectionFactory[].class)
+                    .newInstance(server, factories);
+            connector.getClass().getMethod("setUnixSocket", String.class).invoke(connector, unixSocket.getAbsolutePath());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.out.println(format("Unix domain sockets require Java 16 or newer or %s on the class path", UNIX_SOCKET_CONNECTOR_CLASS));
+            return null;
+        }
+        // jetty-unixsocket binds on start and does not manage the socket file
+        connector.addLifeCycleListener(new LifeCycle.Listener() {
+            @Override
+            public void lifeCycleStarting(LifeCycle event) {
+                try {
+                    UnixDomainSocketConnector.deleteStaleSocket(unixSocket.toPath());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public void lifeCycleStarted(LifeCycle event) {
+                try {
+                    UnixDomainSocketConnector.setPermissions(unixSocket.toPath(), unixSocketPermissions);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public void lifeCycleStopped(LifeCycle event) {
+                if (!unixSocket.delete() && unixSocket.exists()) {
+                    System.out.println(format("Unable to delete %s", unixSocket));
+                }
+            }
+        });
+        return connector;
+    }
+
+    protected ServerConnector createSslConnector(Server server, HttpConfiguration httpConfiguration) {
+        SslContextFactory.Server sslContextFactory = new SslContextFactory.Server();
+        sslContextFactory.setKeyStorePath(keyStore.getAbsolutePath());
+        if (keyStorePassword != null) {
+            sslContextFactory.setKeyStorePassword(keyStorePassword);
+        }
+        HttpConfiguration httpsConfiguration = new HttpConfiguration(httpConfiguration);
+        httpsConfiguration.addCustomizer(new SecureRequestCustomizer());
+        HttpConnectionFactory http1 = new HttpConnectionFactory(httpsConfiguration);
+
+        ServerConnector connector = null;
+        if (http2Enabled) {
+            try {
+                ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory();
+                alpn.setDefaultProtocol(http1.getProtocol());
+                sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+                connector = new ServerConnector(server, new SslConnectionFactory(sslContextFactory, alpn.getProtocol()),
+                        alpn, configureHttp2(new HTTP2ServerConnectionFactory(httpsConfiguration)), http1);
+            } catch (IllegalStateException e) {
+                System.out.println(format("ALPN is not available, HTTP/2 over TLS is disabled: %s", e.getMessage()));
+            }
+        }
+        if (connector == null) {
+            connector = new ServerConnector(server, sslContextFactory, http1);
+        }
+        connector.setPort(sslPort);
+        return connector;
+    }
+
+    protected <T extends AbstractHTTP2ServerConnectionFactory> T configureHttp2(T http2) {
+        http2.setMaxConcurrentStreams(http2MaxConcurrentStreams);
+        http2.setInitialStreamRecvWindow(http2StreamWindow);
+        http2.setInitialSessionRecvWindow(http2SessionWindow);
+        return http2;
+    }
+
+    protected QueuedThreadPool createThreadPool() {
+        BlockingQueue<Runnable> queue = null;
+        if (threadQueueSize > 0) {
+            queue = new BlockingArrayQueue<>(Math.min(minThreads, threadQueueSize), minThreads, threadQueueSize);
+        }
+        if (virtualThreadsEnabled) {
+            if (VirtualThreadPool.isSupported()) {
+                System.out.println("Handling requests on virtual threads");
+                return new VirtualThreadPool(maxThreads, minThreads, threadIdleTimeout, queue);
+            }
+            System.out.println("Virtual threads require Java 21 or newer, using the platform thread pool");
+        }
+        return new QueuedThreadPool(maxThreads, minThreads, threadIdleTimeout, reservedThreads, queue, null);
+    }
+
+    /**
+     * @return class loader resolving {@code LIB-INF} paths in the exploded copy of the uber jar
+     * or the server class loader if the jar can't be extracted
+     */
+    protected ClassLoader createExplodedClassLoader(ClassLoader serverClassLoader) {
+        URL sharedUrl = MappedJarURLs.toMappedURL(serverClassLoader.getResource(SHARED_CLASS_PATH_IN_JAR + PATH_DELIMITER));
+        if (sharedUrl == null || !MappedJarURLs.isMappedURL(sharedUrl)) {
+            System.out.println("Exploded jar cache is only supported for uber jars on the local file system");
+            return serverClassLoader;
+        }
+        StartupReport.Timer timer = startupReport.startTimer("Extract uber jar");
+        try {
+            String appHome = System.getProperty("app.home");
+            File cacheDir = appHome == null || appHome.isEmpty() ? new File(ExplodedJarCache.DEFAULT_CACHE_DIR)
+                    : new File(appHome, ExplodedJarCache.DEFAULT_CACHE_DIR);
+            explodedJarCache = new ExplodedJarCache(cacheDir, Runtime.getRuntime().availableProcessors());
+            File explodedDir = explodedJarCache.extract(MappedJarURLs.getJarFile(sharedUrl));
+            return new URLClassLoader(new URL[]{explodedDir.toURI().toURL()}, null);
+        } catch (IOException e) {
+            System.out.println(format("Unable to use exploded jar cache, reading the jar instead: %s", e));
+            return serverClassLoader;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * @return handler serving requests of the context, either the context itself or a wrapper around it
+     */
+    protected Handler wrapContext(String name, WebAppContext context) {
+        Handler handler = context;
+        Integer maxRequests = contextMaxRequests.get(name.toLowerCase());
+        if (maxRequests != null && maxRequests > 0) {
+            Integer maxQueued = contextMaxQueued.get(name.toLowerCase());
+            handler = new ContextBulkhead(name, context, maxRequests, maxQueued != null ? maxQueued : maxRequests,
+                    contextQueueTimeout);
+        }
+        if (staticResourceCache != null) {
+            // cached resources are sent without taking a place in the bulkhead
+            StaticResourceHandler staticResourceHandler = new StaticResourceHandler(context, staticResourceCache);
+            staticResourceHandler.setHandler(handler);
+            handler = staticResourceHandler;
+        }
+        if (requestMetrics != null) {
+            // outermost, so that cached resources and time in the bulkhead queue are measured too
+            RequestMetricsHandler metricsHandler = new RequestMetricsHandler(context, requestMetrics.getContextMetrics(name));
+            metricsHandler.setHandler(handler);
+            handler = metricsHandler;
+        }
+        return handler;
+    }
+
+    protected ClassLoader createClassLoader(String name, URL[] urls, ClassLoader parent) {
+        StartupReport.Timer timer = startupReport.startTimer(format("Create class loader %s", name));
+        if (mappedJarEnabled) {
+            urls = MappedJarURLs.toMappedURLs(urls);
+        }
+        UberJarURLClassLoader classLoader = new UberJarURLClassLoader(name, urls, parent,
+                classLoaderIndexEnabled, uberJarIndex);
+        startupReport.addClassLoader(classLoader);
+        if (cdsTraining) {
+            classLoader.recordLoadedClasses();
+        }
+        synchronized (classLoaders) {
+            classLoaders.put(name, classLoader);
+        }
+        timer.stop();
+        return classLoader;
+    }
+
+    protected void closeClassLoader(String name) {
+        UberJarURLClassLoader classLoader;
+        synchronized (classLoaders) {
+            classLoader = classLoaders.remove(name);
+        }
+        if (classLoader != null) {
+            startupReport.removeClassLoader(classLoader);
+            try {
+                classLoader.close();
+            } catch (IOException e) {
+                System.out.println(format("Unable to close class loader %s: %s", name, e));
+            }
+        }
     }
 
     protected void setResourceBase(ClassLoader serverClassLoader, WebAppContext appContext, String appPath) throws URISyntaxException {
         URL resourceBaseUrl = serverClassLoader.getResource(appPath);
         if (resourceBaseUrl != null) {
+            if (mappedJarEnabled) {
+                URL mappedUrl = MappedJarURLs.toMappedURL(serverClassLoader.getResource(appPath + PATH_DELIMITER));
+                if (mappedUrl != null && MappedJarURLs.isMappedURL(mappedUrl)) {
+                    try {
+                        appContext.setBaseResource(new MappedJarResource(mappedUrl));
+                        return;
+                    } catch (IOException e) {
+                        System.out.println(format("Unable to map resource base %s: %s", mappedUrl, e));
+                    }
+                }
+            }
             appContext.setResourceBase(resourceBaseUrl.toURI().toString());
         }
     }
 
     protected EnvConfiguration createEnvConfiguration() {
-        EnvConfiguration envConfiguration = new EnvConfiguration();
+        EnvConfiguration envConfiguration = new EnvConfiguration() {
+            @Override
+            public void configure(WebAppContext context) throws Exception {
+                StartupReport.Timer timer = startupReport.startTimer(format("Configure JNDI %s", context.getContextPath()));
+                super.configure(context);
+                timer.stop();
+            }
+        };
         if (jettyEnvPathUrl != null) {
             envConfiguration.setJettyEnvXml(jettyEnvPathUrl);
         }
         return envConfiguration;
     }
+
+    protected void completeCdsTraining(Server server) throws Exception {
+        if (cdsWarmupUrls != null) {
+            int localPort = port;
+            for (Connector connector : server.getConnectors()) {
+                if (connector instanceof NetworkConnector && ((NetworkConnector) connector).getLocalPort() > 0) {
+                    localPort = ((NetworkConnector) connector).getLocalPort();
+                    break;
+                }
+            }
+            ClassDataSharing.warmUp(cdsWarmupUrls, format("http://127.0.0.1:%d", localPort));
+        }
+        File classList = ClassDataSharing.getClassListFile(cdsArchive);
+        List<UberJarURLClassLoader> trainedClassLoaders;
+        synchronized (classLoaders) {
+            trainedClassLoaders = new ArrayList<>(classLoaders.values());
+        }
+        ClassDataSharing.writeClassList(classList, trainedClassLoaders);
+        System.out.println(format("Class list written to %s", classList));
+        server.stop();
+    }
+
+    protected String getConnectorName(Connector connector) {
+        if (connector instanceof NetworkConnector) {
+            NetworkConnector networkConnector = (NetworkConnector) connector;
+            return format("%s:%d", networkConnector.getHost() != null ? networkConnector.getHost() : "*",
+                    networkConnector.getPort());
+        }
+        return connector.getName() != null ? connector.getName() : connector.getClass().getSimpleName();
+    }
 }
@@ -16,6 +16,10 @@
 
 package com.haulmont.uberjar;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
@@ -34,6 +38,9 @@ public class CubaJettyUtils {
     public static final String DEFAULT_STOP_KEY = "SHUTDOWN";
     public static final int STOP_TIMEOUT = 20;
 
+    private static final String HANDLER_PACKAGES_PROPERTY = "java.protocol.handler.pkgs";
+    private static final String HANDLER_PACKAGE = "com.haulmont.uberjar.protocol";
+
     private CubaJettyUtils() {
     }
 
@@ -63,18 +70,66 @@ public class CubaJettyUtils {
     }
 
     public static boolean hasCoreApp(ClassLoader serverClassLoader) {
-        return serverClassLoader.getResource(CORE_PATH_IN_JAR) != null;
+        return hasApp(serverClassLoader, CORE_PATH_IN_JAR);
     }
 
     public static boolean hasWebApp(ClassLoader serverClassLoader) {
-        return serverClassLoader.getResource(WEB_PATH_IN_JAR) != null;
+        return hasApp(serverClassLoader, WEB_PATH_IN_JAR);
     }
 
     public static boolean hasPortalApp(ClassLoader classLoader) {
-        return classLoader.getResource(PORTAL_PATH_IN_JAR) != null;
+        return hasApp(classLoader, PORTAL_PATH_IN_JAR);
     }
 
     public static boolean hasFrontApp(ClassLoader classLoader) {
-        return classLoader.getResource(FRONT_PATH_IN_JAR) != null;
+        return hasApp(classLoader, FRONT_PATH_IN_JAR);
+    }
+
+    private static boolean hasApp(ClassLoader classLoader, String appPathInJar) {
+        UberJarIndex uberJarIndex = UberJarIndex.get(classLoader);
+        if (uberJarIndex != null) {
+            return uberJarIndex.hasApp(appPathInJar);
+        }
+        return classLoader.getResource(appPathInJar) != null;
+    }
+
+    /**
+     * Makes URLs of the {@code uberjar} and {@code local} protocols resolvable from strings, e.g. by Jetty resources.
+     */
+    public static synchronized void registerProtocolHandlers() {
+        String packages = System.getProperty(HANDLER_PACKAGES_PROPERTY);
+        if (packages == null || packages.isEmpty()) {
+            System.setProperty(HANDLER_PACKAGES_PROPERTY, HANDLER_PACKAGE);
+        } else if (!("|" + packages + "|").contains("|" + HANDLER_PACKAGE + "|")) {
+            System.setProperty(HANDLER_PACKAGES_PROPERTY, packages + "|" + HANDLER_PACKAGE);
+        }
+    }
+
+    /**
+     * Registers the bean in the platform MBean server, replacing a bean registered earlier with the same name.
+     */
+    public static void registerMBean(Object mBean, String objectName) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+            mBeanServer.registerMBean(mBean, name);
+        } catch (JMException e) {
+            System.out.println(String.format("Unable to register %s in JMX: %s", objectName, e));
+        }
+    }
+
+    public static void unregisterMBean(String objectName) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            System.out.println(String.format("Unable to unregister %s in JMX: %s", objectName, e));
+        }
     }
 }
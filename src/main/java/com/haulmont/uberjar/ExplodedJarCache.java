@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.haulmont.uberjar.CubaJettyUtils.PATH_DELIMITER;
+import static java.lang.String.format;
+
+/**
+ * Cache of uber jars with {@code LIB-INF} extracted to plain directories, so that later starts of the same jar
+ * read classes and resources from the file system.
+ * <p>
+ * Each jar is extracted once into a directory named after the jar file and the hash of its central directory.
+ * The directory is filled under a temporary name and renamed when complete. While the process runs it holds
+ * a shared lock on the {@code .lock} file next to the directory, so older extractions of the same jar are only
+ * removed when no process uses them. Directories of other jars sharing the cache are left alone.
+ */
+public class ExplodedJarCache {
+    public static final String DEFAULT_CACHE_DIR = "uberjar-cache";
+
+    protected static final String EXTRACTED_PREFIX = "LIB-INF/";
+    protected static final String TEMP_PREFIX = "tmp-";
+    protected static final String LOCK_SUFFIX = ".lock";
+    protected static final int KEY_LENGTH = 40;
+    protected static final long TEMP_DIR_EXPIRATION = TimeUnit.HOURS.toMillis(1);
+
+    protected final File cacheDir;
+    protected final int threads;
+
+    protected FileLock lock;
+
+    public ExplodedJarCache(File cacheDir, int threads) {
+        this.cacheDir = cacheDir;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @return directory containing the extracted {@code LIB-INF} of the jar, locked as used until the process exits
+     */
+    public File extract(File jarFile) throws IOException {
+        MappedJarFile mappedJarFile = MappedJarFile.open(jarFile);
+        String key = getDirName(jarFile, getKey(mappedJarFile));
+        File targetDir = new File(cacheDir, key);
+        Files.createDirectories(cacheDir.toPath());
+        lock = lockShared(getLockFile(targetDir));
+        if (!targetDir.isDirectory()) {
+            Path tempDir = Files.createTempDirectory(cacheDir.toPath(), TEMP_PREFIX + key);
+            try {
+                int count = extractEntries(mappedJarFile, tempDir);
+                Files.move(tempDir, targetDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                System.out.println(format("Extracted %d entries of %s to %s", count, jarFile.getName(), targetDir));
+            } catch (IOException e) {
+                // the jar may have been extracted by another process in the meantime
+                if (!targetDir.isDirectory()) {
+                    throw e;
+                }
+            } finally {
+                FileUtils.deleteQuietly(tempDir.toFile());
+            }
+        }
+        removeStale(jarFile, key);
+        return targetDir;
+    }
+
+    protected String getDirName(File jarFile, String key) {
+        return jarFile.getName() + "-" + key;
+    }
+
+    protected File getLockFile(File dir) {
+        return new File(dir.getParentFile(), dir.getName() + LOCK_SUFFIX);
+    }
+
+    /**
+     * Takes a shared lock marking the directory as used. The lock is released by the OS when the process exits.
+     */
+    protected FileLock lockShared(File lockFile) throws IOException {
+        while (true) {
+            FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                FileLock fileLock = channel.lock(0, Long.MAX_VALUE, true);
+                // the lock file may have been removed together with its directory before we got the lock
+                if (lockFile.exists()) {
+                    return fileLock;
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            channel.close();
+        }
+    }
+
+    protected String getKey(MappedJarFile jarFile) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(jarFile.getCentralDirectory());
+            digest.update(Long.toString(jarFile.getFile().length()).getBytes());
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unable to hash " + jarFile.getFile(), e);
+        }
+    }
+
+    protected int extractEntries(MappedJarFile jarFile, Path targetDir) throws IOException {
+        List<Integer> files = new ArrayList<>();
+        String[] names = jarFile.getNames();
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            if (!name.startsWith(EXTRACTED_PREFIX)) {
+                continue;
+            }
+            Path target = resolve(targetDir, name);
+            if (name.endsWith(PATH_DELIMITER)) {
+                Files.createDirectories(target);
+            } else {
+                Files.createDirectories(target.getParent());
+                files.add(i);
+            }
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "jar-extract-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int entry : files) {
+                futures.add(executor.submit(() -> {
+                    extractEntry(jarFile, entry, resolve(targetDir, jarFile.getName(entry)));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Extraction of " + jarFile.getFile() + " has been interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to extract " + jarFile.getFile(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return files.size();
+    }
+
+    protected void extractEntry(MappedJarFile jarFile, int entry, Path target) throws IOException {
+        try (InputStream in = jarFile.getInputStream(entry)) {
+            Files.copy(in, target);
+        }
+        Files.setLastModifiedTime(target, FileTime.fromMillis(jarFile.getTime(entry)));
+    }
+
+    protected Path resolve(Path targetDir, String name) throws IOException {
+        Path target = targetDir.resolve(name).normalize();
+        if (!target.startsWith(targetDir)) {
+            throw new IOException("Entry " + name + " is outside of the target directory");
+        }
+        return target;
+    }
+
+    /**
+     * Removes older extractions of the same jar that no process uses and temporary directories abandoned
+     * by interrupted extractions.
+     */
+    protected void removeStale(File jarFile, String key) {
+        File[] dirs = cacheDir.listFiles(File::isDirectory);
+        if (dirs == null) {
+            return;
+        }
+        String prefix = getDirName(jarFile, "");
+        for (File dir : dirs) {
+            String name = dir.getName();
+            if (name.startsWith(TEMP_PREFIX)) {
+                if (System.currentTimeMillis() - dir.lastModified() >= TEMP_DIR_EXPIRATION && FileUtils.deleteQuietly(dir)) {
+                    System.out.println(format("Removed abandoned exploded jar cache %s", dir));
+                }
+            } else if (!name.equals(key) && name.startsWith(prefix) && name.length() == prefix.length() + KEY_LENGTH) {
+                removeIfUnused(dir);
+            }
+        }
+    }
+
+    protected void removeIfUnused(File dir) {
+        File lockFile = getLockFile(dir);
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock fileLock = channel.tryLock();
+            if (fileLock == null) {
+                return;
+            }
+            try {
+                if (FileUtils.deleteQuietly(dir)) {
+                    System.out.println(format("Removed stale exploded jar cache %s", dir));
+                }
+                Files.deleteIfExists(lockFile.toPath());
+            } finally {
+                fileLock.release();
+            }
+        } catch (OverlappingFileLockException e) {
+            // used by this process
+        } catch (IOException e) {
+            System.out.println(format("Unable to remove stale exploded jar cache %s: %s", dir, e));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.NetworkConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.eclipse.jetty.websocket.jsr356.server.ServerContainer;
+import org.eclipse.jetty.websocket.server.WebSocketServerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+
+/**
+ * Stops the server without failing requests in progress.
+ * <p>
+ * Network connectors stop accepting and close connections after their current request, while the in-process
+ * {@link LocalTransport} keeps serving Web to Core calls. Once no request is active and no WebSocket session is open,
+ * or the grace period has passed, contexts are stopped in reverse dependency order and then the server.
+ */
+public class GracefulShutdown {
+    protected static final long PROGRESS_PERIOD = 1000;
+
+    protected final Server server;
+    protected final StatisticsHandler statisticsHandler;
+    protected final List<? extends Handler> contexts;
+    protected final List<ServerContainer> webSocketContainers;
+    protected final long gracePeriod;
+
+    protected boolean stopped;
+
+    /**
+     * @param contexts    contexts or {@link LazyContextHandler}s in start order, Core first
+     * @param gracePeriod max time in milliseconds to wait for requests and WebSocket sessions
+     */
+    public GracefulShutdown(Server server, StatisticsHandler statisticsHandler, List<? extends Handler> contexts,
+                            List<ServerContainer> webSocketContainers, long gracePeriod) {
+        this.server = server;
+        this.statisticsHandler = statisticsHandler;
+        this.contexts = contexts;
+        this.webSocketContainers = webSocketContainers;
+        this.gracePeriod = gracePeriod;
+    }
+
+    /**
+     * @param progress receives progress messages
+     */
+    public synchronized void drainAndStop(Consumer<String> progress) {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        progress.accept(format("Draining, grace period %d seconds", TimeUnit.MILLISECONDS.toSeconds(gracePeriod)));
+        stopAccepting(progress);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(gracePeriod);
+        while (true) {
+            int requests = statisticsHandler.getRequestsActive();
+            int sessions = getOpenWebSocketSessions();
+            if (requests == 0 && sessions == 0) {
+                progress.accept("Drained");
+                break;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                progress.accept(format("Grace period is over, %d requests and %d WebSocket sessions remain", requests, sessions));
+                break;
+            }
+            progress.accept(format("Remaining %d requests, %d WebSocket sessions", requests, sessions));
+            try {
+                Thread.sleep(Math.min(PROGRESS_PERIOD, TimeUnit.NANOSECONDS.toMillis(remaining) + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        List<Handler> stopOrder = new ArrayList<>(contexts);
+        for (int i = stopOrder.size() - 1; i >= 0; i--) {
+            Handler context = stopOrder.get(i);
+            progress.accept(format("Stopping %s", getContextPath(context)));
+            try {
+                // a lazy context handler stops its context if it is loaded
+                context.stop();
+            } catch (Exception e) {
+                progress.accept(format("Failed to stop %s: %s", getContextPath(context), e));
+            }
+        }
+        try {
+            server.stop();
+        } catch (Exception e) {
+            progress.accept(format("Failed to stop server: %s", e));
+        }
+    }
+
+    protected void stopAccepting(Consumer<String> progress) {
+        for (Connector connector : server.getConnectors()) {
+            if (connector instanceof LocalConnector) {
+                continue;
+            }
+            // connections are closed after their current request
+            connector.shutdown();
+            if (connector instanceof AbstractConnector) {
+                ((AbstractConnector) connector).setAccepting(false);
+            }
+            if (connector instanceof NetworkConnector) {
+                ((NetworkConnector) connector).close();
+            }
+            progress.accept(format("Closed connector %s", connector.getName() != null ? connector.getName() : connector));
+        }
+    }
+
+    protected String getContextPath(Handler context) {
+        if (context instanceof ContextHandler) {
+            return ((ContextHandler) context).getContextPath();
+        }
+        if (context instanceof LazyContextHandler) {
+            return ((LazyContextHandler) context).getContextPath();
+        }
+        return context.toString();
+    }
+
+    protected int getOpenWebSocketSessions() {
+        int sessions = 0;
+        for (ServerContainer container : webSocketContainers) {
+            WebSocketServerFactory factory = container.getWebSocketServerFactory();
+            if (factory != null) {
+                sessions += factory.getOpenSessions().size();
+            }
+        }
+        return sessions;
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.webapp.WebAppContext;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.haulmont.uberjar.CubaJettyUtils.PATH_DELIMITER;
+import static java.lang.String.format;
+
+/**
+ * Registers the context path at boot, but creates and starts the context only on the first request to it.
+ * <p>
+ * The context is started in a separate thread; requests arriving meanwhile wait for it up to the start timeout
+ * and get 503 if it isn't started in time or fails to start. A failed start is retried on the next request.
+ * If the idle timeout is set, the context is stopped after that time without requests and open sessions,
+ * e.g. WebSocket connections, so that its class loader can be collected, and is started again by the next request.
+ */
+public abstract class LazyContextHandler extends AbstractHandler implements LazyContextHandlerMBean {
+    public static final String OBJECT_NAME_PREFIX = "com.haulmont.uberjar:type=LazyContext,name=";
+
+    protected static final int RETRY_AFTER_SECONDS = 5;
+
+    protected final String name;
+    protected final String contextPath;
+    protected final long startTimeout;
+    protected final long idleTimeout;
+
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // guarded by lock
+    protected LoadedContext loadedContext;
+    // guarded by the write lock
+    protected CompletableFuture<LoadedContext> loading;
+
+    protected final LongAdder loadCount = new LongAdder();
+    protected final LongAdder unloadCount = new LongAdder();
+    protected volatile long lastRequestTime;
+    protected ScheduledExecutorService idleChecker;
+
+    /**
+     * @param startTimeout max time in milliseconds a request waits for the context to start
+     * @param idleTimeout  time in milliseconds without requests after which the context is unloaded, 0 to keep it
+     */
+    public LazyContextHandler(String name, String contextPath, long startTimeout, long idleTimeout) {
+        this.name = name;
+        this.contextPath = contextPath;
+        this.startTimeout = startTimeout;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Creates the context, not started yet.
+     */
+    protected abstract WebAppContext createContext() throws Exception;
+
+    /**
+     * @return handler serving requests of the context, either the context itself or a wrapper around it
+     */
+    protected Handler wrapContext(WebAppContext context) {
+        return context;
+    }
+
+    /**
+     * Releases resources of the context after it is stopped, e.g. its class loader.
+     */
+    protected void contextUnloaded(WebAppContext context) {
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        if (idleTimeout > 0) {
+            idleChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "lazy-context-idle-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(TimeUnit.SECONDS.toMillis(1), idleTimeout / 4);
+            idleChecker.scheduleWithFixedDelay(this::unloadIfIdle, period, period, TimeUnit.MILLISECONDS);
+        }
+        CubaJettyUtils.registerMBean(this, OBJECT_NAME_PREFIX + name);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (idleChecker != null) {
+            idleChecker.shutdownNow();
+            idleChecker = null;
+        }
+        LoadedContext current;
+        lock.writeLock().lock();
+        try {
+            current = loadedContext;
+            loadedContext = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (current != null) {
+            stopContext(current);
+        }
+        CubaJettyUtils.unregisterMBean(OBJECT_NAME_PREFIX + name);
+        super.doStop();
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        if (baseRequest.getDispatcherType() != DispatcherType.REQUEST) {
+            // async dispatch of a request accepted earlier, the context decides if it is its own
+            LoadedContext current = getLoadedContext();
+            if (current != null) {
+                current.handler.handle(target, baseRequest, request, response);
+            }
+            return;
+        }
+        if (baseRequest.isHandled() || !matches(target)) {
+            return;
+        }
+
+        LoadedContext current;
+        while ((current = acquire()) == null) {
+            try {
+                load().get(startTimeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                reject(baseRequest, response);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                reject(baseRequest, response);
+                return;
+            }
+        }
+
+        boolean released = false;
+        try {
+            current.handler.handle(target, baseRequest, request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleaseListener(current));
+                released = true;
+            }
+        } finally {
+            if (!released) {
+                current.release();
+            }
+        }
+    }
+
+    protected boolean matches(String target) {
+        if (PATH_DELIMITER.equals(contextPath)) {
+            return true;
+        }
+        return target.startsWith(contextPath)
+                && (target.length() == contextPath.length() || target.charAt(contextPath.length()) == '/');
+    }
+
+    protected LoadedContext getLoadedContext() {
+        lock.readLock().lock();
+        try {
+            return loadedContext;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return loaded context with the request counted as active, or null if the context isn't loaded
+     */
+    protected LoadedContext acquire() {
+        lock.readLock().lock();
+        try {
+            LoadedContext current = loadedContext;
+            if (current != null) {
+                current.activeRequests.incrementAndGet();
+                lastRequestTime = System.currentTimeMillis();
+            }
+            return current;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    protected CompletableFuture<LoadedContext> load() {
+        lock.writeLock().lock();
+        try {
+            if (loadedContext != null) {
+                return CompletableFuture.completedFuture(loadedContext);
+            }
+            if (loading == null) {
+                CompletableFuture<LoadedContext> future = new CompletableFuture<>();
+                loading = future;
+                Thread thread = new Thread(() -> startContext(future), "lazy-context-start-" + name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            return loading;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    protected void startContext(CompletableFuture<LoadedContext> future) {
+        long startTime = System.nanoTime();
+        System.out.println(format("Starting context %s on first request", name));
+        WebAppContext context = null;
+        LoadedContext loaded = null;
+        try {
+            context = createContext();
+            Handler handler = wrapContext(context);
+            handler.setServer(getServer());
+            loaded = new LoadedContext(context, handler);
+            handler.start();
+        } catch (Throwable e) {
+            System.out.println(format("Unable to start context %s: %s", name, e));
+            if (loaded != null) {
+                stopContext(loaded);
+            } else if (context != null) {
+                contextUnloaded(context);
+            }
+            lock.writeLock().lock();
+            try {
+                loading = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            future.completeExceptionally(e);
+            return;
+        }
+
+        boolean running;
+        lock.writeLock().lock();
+        try {
+            loading = null;
+            running = isRunning();
+            if (running) {
+                loadedContext = loaded;
+                lastRequestTime = System.currentTimeMillis();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (!running) {
+            // the server is stopped while the context was starting
+            stopContext(loaded);
+            future.completeExceptionally(new IllegalStateException("Server is stopped"));
+            return;
+        }
+        loadCount.increment();
+        System.out.println(format("Context %s started in %d ms", name,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+        future.complete(loaded);
+    }
+
+    protected void unloadIfIdle() {
+        try {
+            if (getOpenSessions() > 0) {
+                // connected clients use the context without requests
+                lastRequestTime = System.currentTimeMillis();
+                return;
+            }
+            long idleTime = System.currentTimeMillis() - lastRequestTime;
+            if (idleTime >= idleTimeout && unload()) {
+                System.out.println(format("Context %s unloaded after %d s without requests", name,
+                        TimeUnit.MILLISECONDS.toSeconds(idleTime)));
+            }
+        } catch (RuntimeException e) {
+            System.out.println(format("Unable to unload context %s: %s", name, e));
+        }
+    }
+
+    @Override
+    public boolean unload() {
+        LoadedContext current;
+        lock.writeLock().lock();
+        try {
+            current = loadedContext;
+            // requests take the read lock before they are counted, so none can start using the context after this check
+            if (current == null || current.activeRequests.get() > 0 || getOpenSessions() > 0) {
+                return false;
+            }
+            loadedContext = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        stopContext(current);
+        unloadCount.increment();
+        return true;
+    }
+
+    protected void stopContext(LoadedContext loaded) {
+        try {
+            loaded.handler.stop();
+            loaded.handler.destroy();
+        } catch (Exception e) {
+            System.out.println(format("Unable to stop context %s: %s", name, e));
+        }
+        contextUnloaded(loaded.context);
+    }
+
+    protected void reject(Request baseRequest, HttpServletResponse response) throws IOException {
+        baseRequest.setHandled(true);
+        response.setHeader("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    @Override
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return getLoadedContext() != null;
+    }
+
+    @Override
+    public int getActiveRequests() {
+        LoadedContext current = getLoadedContext();
+        return current != null ? current.activeRequests.get() : 0;
+    }
+
+    /**
+     * @return number of open sessions outside of requests, e.g. WebSocket connections, 0 by default
+     */
+    @Override
+    public int getOpenSessions() {
+        return 0;
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loadCount.sum();
+    }
+
+    @Override
+    public long getUnloadCount() {
+        return unloadCount.sum();
+    }
+
+    @Override
+    public long getLastRequestTime() {
+        return lastRequestTime;
+    }
+
+    protected class LoadedContext {
+        protected final WebAppContext context;
+        protected final Handler handler;
+        protected final AtomicInteger activeRequests = new AtomicInteger();
+
+        protected LoadedContext(WebAppContext context, Handler handler) {
+            this.context = context;
+            this.handler = handler;
+        }
+
+        protected void release() {
+            lastRequestTime = System.currentTimeMillis();
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    protected class ReleaseListener implements AsyncListener {
+        private final LoadedContext loaded;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        protected ReleaseListener(LoadedContext loaded) {
+            this.loaded = loaded;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            if (released.compareAndSet(false, true)) {
+                loaded.release();
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
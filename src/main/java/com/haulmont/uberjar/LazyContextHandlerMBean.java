@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+public interface LazyContextHandlerMBean {
+
+    String getContextPath();
+
+    boolean isLoaded();
+
+    int getActiveRequests();
+
+    int getOpenSessions();
+
+    long getLoadCount();
+
+    long getUnloadCount();
+
+    long getLastRequestTime();
+
+    /**
+     * Unloads the context if it has no requests in progress and no open sessions.
+     *
+     * @return true if the context has been unloaded
+     */
+    boolean unload();
+}
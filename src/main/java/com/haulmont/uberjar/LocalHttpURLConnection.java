@@ -0,0 +1,470 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpParser;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.util.BufferUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Connection to a {@code local} URL, executed by the {@link LocalTransport} connector of the current server.
+ * <p>
+ * As with the JDK connection, the request body is buffered unless a fixed length or chunked streaming mode is set.
+ * The response is parsed as the caller reads it, the server waits while the output buffer is full.
+ * The read timeout limits the wait for each part of the response and is 5 minutes by default.
+ */
+public class LocalHttpURLConnection extends HttpURLConnection {
+    private static final long DEFAULT_READ_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long OUTPUT_POLL_MILLIS = 100;
+
+    protected ByteArrayOutputStream requestBody;
+    protected StreamingRequestBody streamingRequestBody;
+    protected LocalConnector.LocalEndPoint endPoint;
+
+    protected String responseReason;
+    protected List<String> headerKeys = new ArrayList<>();
+    protected List<String> headerValues = new ArrayList<>();
+    protected HttpParser responseParser;
+    protected ByteBuffer responseData;
+    protected Deque<ByteBuffer> responseContent = new ArrayDeque<>();
+    protected boolean responseHeaderComplete;
+    protected boolean responseEnded;
+    protected boolean responseTruncated;
+    protected InputStream responseStream;
+
+    public LocalHttpURLConnection(URL url) {
+        super(url);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected) {
+            return;
+        }
+        if (streamingRequestBody != null) {
+            streamingRequestBody.close();
+        } else {
+            boolean hasBody = requestBody != null || "POST".equals(method) || "PUT".equals(method);
+            sendRequestHead(hasBody ? (requestBody != null ? requestBody.size() : 0) : -1, false);
+            if (requestBody != null && requestBody.size() > 0) {
+                endPoint.addInputAndExecute(ByteBuffer.wrap(requestBody.toByteArray()));
+            }
+        }
+        connected = true;
+
+        responseParser = new HttpParser(new ResponseCollector());
+        responseParser.setHeadResponse("HEAD".equals(method));
+        while (!responseHeaderComplete && parseResponse()) {
+            // wait for the status line and headers
+        }
+        if (responseCode < 0) {
+            throw new ProtocolException(format("Invalid response for local request %s", url));
+        }
+        responseStream = new ResponseInputStream();
+    }
+
+    /**
+     * Opens a connection to the local connector and sends the request line and headers.
+     *
+     * @param contentLength length of the body, -1 if the request has none or it is chunked
+     */
+    protected void sendRequestHead(long contentLength, boolean chunked) throws IOException {
+        LocalConnector connector = LocalTransport.getConnector();
+        if (connector == null) {
+            throw new IOException("Local transport is not enabled");
+        }
+        endPoint = connector.connect();
+        // the server waits for the reader when the output buffer of the end point is full
+        endPoint.setGrowOutput(false);
+        endPoint.addInputAndExecute(createRequestHead(contentLength, chunked));
+    }
+
+    protected ByteBuffer createRequestHead(long contentLength, boolean chunked) {
+        String path = url.getFile();
+        StringBuilder head = new StringBuilder()
+                .append(method).append(' ').append(path.isEmpty() ? "/" : path).append(" HTTP/1.1\r\n")
+                .append("Host: localhost\r\n");
+        for (Map.Entry<String, List<String>> property : getRequestProperties().entrySet()) {
+            if (property.getKey() == null || isHopHeader(property.getKey())) {
+                continue;
+            }
+            for (String value : property.getValue()) {
+                head.append(property.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (chunked) {
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else if (contentLength >= 0) {
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        head.append("Connection: close\r\n\r\n");
+        return ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    protected boolean isHopHeader(String name) {
+        return "Host".equalsIgnoreCase(name)
+                || "Connection".equalsIgnoreCase(name)
+                || "Content-Length".equalsIgnoreCase(name)
+                || "Transfer-Encoding".equalsIgnoreCase(name);
+    }
+
+    /**
+     * Parses the next part of the response, waiting for the server if nothing is left to parse.
+     *
+     * @return false if the response has ended
+     */
+    protected boolean parseResponse() throws IOException {
+        if (responseParser.isComplete() || responseEnded) {
+            return false;
+        }
+        if (BufferUtil.isEmpty(responseData)) {
+            ByteBuffer output = waitForOutput();
+            if (!output.hasRemaining()) {
+                // the server has closed the connection, content without length ends here
+                responseEnded = true;
+                responseParser.atEOF();
+                responseParser.parseNext(BufferUtil.EMPTY_BUFFER);
+                return false;
+            }
+            responseData = output;
+        }
+        responseParser.parseNext(responseData);
+        return true;
+    }
+
+    protected ByteBuffer waitForOutput() throws IOException {
+        long timeout = getReadTimeout() > 0 ? getReadTimeout() : DEFAULT_READ_TIMEOUT_MILLIS;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            while (true) {
+                ByteBuffer output = endPoint.waitForOutput(OUTPUT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (output != null) {
+                    return output;
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    throw new SocketTimeoutException(format("No response for local request %s in %d ms", url, timeout));
+                }
+                // a write that became pending after the last taken output is only resumed by the reader
+                endPoint.getWriteFlusher().completeWrite();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(format("Local request %s has been interrupted", url));
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (connected) {
+            throw new ProtocolException("Cannot write output after reading input");
+        }
+        if (!doOutput) {
+            throw new ProtocolException("Cannot write output if doOutput is false");
+        }
+        if ("GET".equals(method)) {
+            method = "POST";
+        }
+        if (streamingRequestBody != null) {
+            return streamingRequestBody;
+        }
+        if (requestBody == null && (fixedContentLengthLong >= 0 || fixedContentLength >= 0 || chunkLength > 0)) {
+            long length = fixedContentLengthLong >= 0 ? fixedContentLengthLong : fixedContentLength;
+            sendRequestHead(length, length < 0);
+            streamingRequestBody = new StreamingRequestBody(length);
+            return streamingRequestBody;
+        }
+        if (requestBody == null) {
+            requestBody = new ByteArrayOutputStream();
+        }
+        return requestBody;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        connect();
+        if (responseCode == HTTP_NOT_FOUND || responseCode == HTTP_GONE) {
+            throw new FileNotFoundException(url.toString());
+        }
+        if (responseCode >= HTTP_BAD_REQUEST) {
+            throw new IOException(format("Server returned HTTP response code: %d for URL: %s", responseCode, url));
+        }
+        return responseStream;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if (!connected || responseCode < HTTP_BAD_REQUEST
+                || responseParser.isComplete() && responseContent.isEmpty()) {
+            return null;
+        }
+        return responseStream;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        connect();
+        return responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        connect();
+        return responseReason;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if (!ensureConnected()) {
+            return null;
+        }
+        for (int i = headerKeys.size() - 1; i >= 0; i--) {
+            if (headerKeys.get(i).equalsIgnoreCase(name)) {
+                return headerValues.get(i);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        // as in the JDK, position 0 is the status line without a key
+        if (!ensureConnected() || n <= 0 || n > headerKeys.size()) {
+            return null;
+        }
+        return headerKeys.get(n - 1);
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        if (!ensureConnected() || n < 0 || n > headerKeys.size()) {
+            return null;
+        }
+        return n == 0 ? format("HTTP/1.1 %d %s", responseCode, responseReason) : headerValues.get(n - 1);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if (!ensureConnected()) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<String>> fields = new LinkedHashMap<>();
+        for (int i = 0; i < headerKeys.size(); i++) {
+            fields.computeIfAbsent(headerKeys.get(i), key -> new ArrayList<>()).add(headerValues.get(i));
+        }
+        return Collections.unmodifiableMap(fields);
+    }
+
+    protected boolean ensureConnected() {
+        try {
+            connect();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        if (endPoint != null) {
+            endPoint.close();
+        }
+        responseContent.clear();
+        responseData = null;
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    /**
+     * Request body sent to the server as it is written, with a fixed length or in chunks.
+     */
+    protected class StreamingRequestBody extends OutputStream {
+        protected final long length;
+        protected long written;
+        protected boolean closed;
+
+        /**
+         * @param length length of the body or -1 to send it chunked
+         */
+        public StreamingRequestBody(long length) {
+            this.length = length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            if (len == 0) {
+                return;
+            }
+            if (length >= 0 && written + len > length) {
+                throw new IOException(format("Too many bytes written to local request %s, expected %d", url, length));
+            }
+            written += len;
+            if (length < 0) {
+                byte[] chunkHead = (Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+                ByteBuffer chunk = ByteBuffer.allocate(chunkHead.length + len + 2);
+                chunk.put(chunkHead).put(b, off, len).put((byte) '\r').put((byte) '\n').flip();
+                endPoint.addInputAndExecute(chunk);
+            } else {
+                endPoint.addInputAndExecute(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (length < 0) {
+                endPoint.addInputAndExecute(ByteBuffer.wrap("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1)));
+            } else if (written < length) {
+                throw new IOException(format("Insufficient data written to local request %s, expected %d, written %d",
+                        url, length, written));
+            }
+        }
+    }
+
+    /**
+     * Response content, parsed from the output of the server as it is read.
+     */
+    protected class ResponseInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (responseContent.isEmpty()) {
+                if (!parseResponse()) {
+                    if (responseTruncated) {
+                        throw new IOException(format("Premature end of response for local request %s", url));
+                    }
+                    return -1;
+                }
+            }
+            ByteBuffer content = responseContent.peek();
+            int count = Math.min(len, content.remaining());
+            content.get(b, off, count);
+            if (!content.hasRemaining()) {
+                responseContent.poll();
+            }
+            return count;
+        }
+
+        @Override
+        public int available() {
+            ByteBuffer content = responseContent.peek();
+            return content != null ? content.remaining() : 0;
+        }
+
+        @Override
+        public void close() {
+            disconnect();
+        }
+    }
+
+    protected class ResponseCollector implements HttpParser.ResponseHandler {
+
+        @Override
+        public boolean startResponse(HttpVersion version, int status, String reason) {
+            responseCode = status;
+            responseReason = reason;
+            return false;
+        }
+
+        @Override
+        public void parsedHeader(HttpField field) {
+            headerKeys.add(field.getName());
+            headerValues.add(field.getValue());
+        }
+
+        @Override
+        public boolean headerComplete() {
+            responseHeaderComplete = true;
+            return true;
+        }
+
+        @Override
+        public boolean content(ByteBuffer item) {
+            // the item is a view of the output taken from the end point, which is not reused
+            responseContent.add(item);
+            return true;
+        }
+
+        @Override
+        public boolean contentComplete() {
+            return false;
+        }
+
+        @Override
+        public boolean messageComplete() {
+            return true;
+        }
+
+        @Override
+        public void earlyEOF() {
+            responseTruncated = true;
+        }
+
+        @Override
+        public int getHeaderCacheSize() {
+            return 0;
+        }
+    }
+}
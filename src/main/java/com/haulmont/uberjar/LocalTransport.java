@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Server;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * In-process HTTP transport between application contexts of the same server.
+ * <p>
+ * URLs like {@code local:/app-core/remoting/...} are served by a {@link LocalConnector} of the server, so a request
+ * from the Web context to the Core context does not go through a socket. Connections are {@link java.net.HttpURLConnection}s,
+ * so HTTP clients using {@code URL.openConnection()} work with such URLs unchanged.
+ */
+public final class LocalTransport {
+    public static final String PROTOCOL = "local";
+
+    private static volatile LocalConnector connector;
+
+    private LocalTransport() {
+    }
+
+    /**
+     * Adds a local connector to the server and makes it serve {@code local} URLs.
+     */
+    public static LocalConnector install(Server server) {
+        HttpConfiguration httpConfiguration = new HttpConfiguration();
+        // requests look like they come from the loopback interface, e.g. for trusted client checks
+        InetSocketAddress loopbackAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        httpConfiguration.addCustomizer((connector, configuration, request) -> request.setRemoteAddr(loopbackAddress));
+        LocalConnector localConnector = new LocalConnector(server, new HttpConnectionFactory(httpConfiguration));
+        localConnector.setName(PROTOCOL);
+        server.addConnector(localConnector);
+        connector = localConnector;
+        CubaJettyUtils.registerProtocolHandlers();
+        return localConnector;
+    }
+
+    /**
+     * @return connector serving {@code local} URLs or null if the transport is not installed
+     */
+    public static LocalConnector getConnector() {
+        return connector;
+    }
+
+    /**
+     * @return URL of the context path served in-process, e.g. {@code local:/app-core}
+     */
+    public static String getUrl(String contextPath) {
+        return PROTOCOL + ":" + contextPath;
+    }
+}
@@ -16,14 +16,24 @@
 
 package com.haulmont.uberjar;
 
+import ch.qos.logback.classic.AsyncAppender;
 import ch.qos.logback.classic.BasicConfigurator;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
 import ch.qos.logback.classic.joran.JoranConfigurator;
 import ch.qos.logback.classic.spi.Configurator;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.AsyncAppenderBase;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.hook.DelayingShutdownHook;
 import ch.qos.logback.core.joran.spi.JoranException;
+import ch.qos.logback.core.rolling.SizeAndTimeBasedRollingPolicy;
 import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.FileSize;
 import ch.qos.logback.core.util.Loader;
 import ch.qos.logback.core.util.OptionHelper;
 
@@ -31,22 +41,57 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class LogbackConfigurator extends ContextAwareBase implements Configurator {
 
+    /**
+     * Wraps configured appenders into async appenders, so that logging threads do not wait for the output.
+     */
+    public static final String ASYNC_PROPERTY = "uberjar.log.async";
+    /**
+     * Path of the log file written by a buffered rolling file appender when there is no logback configuration file.
+     */
+    public static final String FILE_PROPERTY = "uberjar.log.file";
+    /**
+     * Capacity of async appender queues.
+     */
+    public static final String QUEUE_SIZE_PROPERTY = "uberjar.log.queueSize";
+    /**
+     * Remaining queue capacity below which TRACE, DEBUG and INFO events are dropped, 0 to keep all events,
+     * a fifth of the queue size by default.
+     */
+    public static final String DISCARDING_THRESHOLD_PROPERTY = "uberjar.log.discardingThreshold";
+    /**
+     * Whether events are dropped instead of blocking the logging thread when the queue is full, false by default.
+     */
+    public static final String NEVER_BLOCK_PROPERTY = "uberjar.log.neverBlock";
+
     private static final String APP_HOME_PROPERTY = "app.home";
 
     private static final String DEFAULT_CLASSPATH_CONFIG = "app-logback.xml";
 
+    private static final String FILE_PATTERN = "%d{yyyy-MM-dd HH:mm:ss.SSS} %-5level [%thread%X{cubaApp}%X{cubaUser}] %logger - %msg%n";
+    private static final int DEFAULT_QUEUE_SIZE = 8192;
+    private static final long SHUTDOWN_DELAY = 1000;
+
     @Override
     public void configure(LoggerContext loggerContext) {
         printInfo("Setting up CUBA default logging configuration");
 
         try {
             URL url = findURLOfConfigurationFile(true);
+            String logFile = OptionHelper.getSystemProperty(FILE_PROPERTY);
             if (url != null) {
                 configureByResource(url);
+            } else if (logFile != null && !logFile.isEmpty()) {
+                printInfo("Configuring rolling file " + logFile + " with INFO threshold");
+                configureRollingFile(loggerContext, logFile);
             } else {
                 printInfo("Configuring console output with WARN threshold");
                 BasicConfigurator basicConfigurator = new BasicConfigurator();
@@ -55,11 +100,124 @@ public class LogbackConfigurator extends ContextAwareBase implements Configurato
                 Logger rootLogger = loggerContext.getLogger(Logger.ROOT_LOGGER_NAME);
                 rootLogger.setLevel(Level.WARN);
             }
+            if (Boolean.parseBoolean(OptionHelper.getSystemProperty(ASYNC_PROPERTY))) {
+                printInfo("Writing log events asynchronously");
+                wrapIntoAsyncAppenders(loggerContext);
+            }
+            if (hasBufferingAppenders(loggerContext)) {
+                installShutdownHook(loggerContext);
+            }
         } catch (Exception e) {
             printError("Failed to configure CUBA default logging: " + e);
         }
     }
 
+    private void configureRollingFile(LoggerContext loggerContext, String logFile) {
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(loggerContext);
+        encoder.setPattern(FILE_PATTERN);
+        encoder.start();
+
+        BufferedRollingFileAppender<ILoggingEvent> appender = new BufferedRollingFileAppender<>();
+        appender.setContext(loggerContext);
+        appender.setName("FILE");
+        appender.setFile(logFile);
+        appender.setEncoder(encoder);
+
+        SizeAndTimeBasedRollingPolicy<ILoggingEvent> rollingPolicy = new SizeAndTimeBasedRollingPolicy<>();
+        rollingPolicy.setContext(loggerContext);
+        rollingPolicy.setParent(appender);
+        rollingPolicy.setFileNamePattern(logFile + ".%d{yyyy-MM-dd}.%i.gz");
+        rollingPolicy.setMaxFileSize(FileSize.valueOf("100MB"));
+        rollingPolicy.setMaxHistory(30);
+        rollingPolicy.setTotalSizeCap(FileSize.valueOf("5GB"));
+        rollingPolicy.start();
+
+        appender.setRollingPolicy(rollingPolicy);
+        appender.start();
+
+        Logger rootLogger = loggerContext.getLogger(Logger.ROOT_LOGGER_NAME);
+        rootLogger.addAppender(appender);
+        rootLogger.setLevel(Level.INFO);
+    }
+
+    /**
+     * Replaces appenders of all loggers with async appenders, an appender shared by loggers gets one async appender.
+     */
+    private void wrapIntoAsyncAppenders(LoggerContext loggerContext) {
+        Map<Appender<ILoggingEvent>, AsyncAppender> asyncAppenders = new IdentityHashMap<>();
+        for (Logger logger : loggerContext.getLoggerList()) {
+            List<Appender<ILoggingEvent>> appenders = new ArrayList<>();
+            for (Iterator<Appender<ILoggingEvent>> it = logger.iteratorForAppenders(); it.hasNext(); ) {
+                Appender<ILoggingEvent> appender = it.next();
+                if (!(appender instanceof AsyncAppenderBase)) {
+                    appenders.add(appender);
+                }
+            }
+            for (Appender<ILoggingEvent> appender : appenders) {
+                logger.detachAppender(appender);
+                logger.addAppender(asyncAppenders.computeIfAbsent(appender, this::createAsyncAppender));
+            }
+        }
+    }
+
+    /**
+     * @return whether events may stay in memory after they are logged, in async queues or file buffers
+     */
+    private boolean hasBufferingAppenders(LoggerContext loggerContext) {
+        for (Logger logger : loggerContext.getLoggerList()) {
+            for (Iterator<Appender<ILoggingEvent>> it = logger.iteratorForAppenders(); it.hasNext(); ) {
+                Appender<ILoggingEvent> appender = it.next();
+                if (appender instanceof AsyncAppenderBase || appender instanceof BufferedRollingFileAppender) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the logger context when the JVM exits, so that queued and buffered events are written.
+     */
+    private void installShutdownHook(LoggerContext loggerContext) {
+        if (loggerContext.getObject(CoreConstants.SHUTDOWN_HOOK_THREAD) == null) {
+            DelayingShutdownHook shutdownHook = new DelayingShutdownHook();
+            shutdownHook.setContext(loggerContext);
+            shutdownHook.setDelay(Duration.buildByMilliseconds(SHUTDOWN_DELAY));
+            Thread hookThread = new Thread(shutdownHook, "Logback shutdown hook");
+            loggerContext.putObject(CoreConstants.SHUTDOWN_HOOK_THREAD, hookThread);
+            Runtime.getRuntime().addShutdownHook(hookThread);
+        }
+    }
+
+    private AsyncAppender createAsyncAppender(Appender<ILoggingEvent> appender) {
+        AsyncAppender asyncAppender = new AsyncAppender();
+        asyncAppender.setContext(appender.getContext());
+        asyncAppender.setName("ASYNC-" + appender.getName());
+        asyncAppender.setQueueSize(getIntProperty(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE));
+        int discardingThreshold = getIntProperty(DISCARDING_THRESHOLD_PROPERTY, -1);
+        if (discardingThreshold >= 0) {
+            asyncAppender.setDiscardingThreshold(discardingThreshold);
+        }
+        asyncAppender.setNeverBlock("true".equalsIgnoreCase(OptionHelper.getSystemProperty(NEVER_BLOCK_PROPERTY)));
+        asyncAppender.addAppender(appender);
+        asyncAppender.start();
+        return asyncAppender;
+    }
+
+    private int getIntProperty(String name, int defaultValue) {
+        String value = OptionHelper.getSystemProperty(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            printError("Invalid value of " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
     private void printInfo(String message) {
         System.out.println(getClass().getSimpleName() + " INFO " + message);
     }
@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of a jar file mapped into memory once. The central directory is parsed into an offset table,
+ * stored entries are served as slices of the mapped buffer and deflated entries are inflated straight into
+ * the target array.
+ */
+public class MappedJarFile {
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int CEN_HEADER_SIZE = 46;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int LOC_HEADER_SIZE = 30;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int INFLATE_IN_MEMORY_LIMIT = 1024 * 1024;
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+    private static final int INFLATER_POOL_SIZE = 16;
+
+    private static final Map<File, MappedJarFile> openFiles = new ConcurrentHashMap<>();
+
+    private static final MethodHandle inflaterSetInputBuffer = findInflaterSetInputBuffer();
+    private static final ThreadLocal<byte[]> inputBuffers = ThreadLocal.withInitial(() -> new byte[INPUT_BUFFER_SIZE]);
+    private static final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final Map<String, Integer> entries;
+    private final Set<String> directories = new HashSet<>();
+    private final String[] names;
+    private final int[] localHeaderOffsets;
+    private final int[] dataOffsets;
+    private final int[] compressedSizes;
+    private final int[] sizes;
+    private final int[] crcs;
+    private final int[] methods;
+    private final int[] dosTimes;
+    private final int directoryStart;
+    private final int directoryLength;
+
+    protected MappedJarFile(File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("%s is too large to be mapped", file));
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        int eocd = findEndOfCentralDirectory();
+        long entryCount = getUnsignedShort(eocd + 10);
+        long directorySize = getUnsignedInt(eocd + 12);
+        long directoryOffset = getUnsignedInt(eocd + 16);
+        int directoryEnd = eocd;
+        int locator = eocd - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0 && buffer.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+            int zip64Eocd = toInt(buffer.getLong(locator + 8));
+            if (buffer.getInt(zip64Eocd) != ZIP64_EOCD_SIGNATURE) {
+                throw new ZipException("Invalid zip64 end of central directory in " + file);
+            }
+            entryCount = buffer.getLong(zip64Eocd + 32);
+            directorySize = buffer.getLong(zip64Eocd + 40);
+            directoryOffset = buffer.getLong(zip64Eocd + 48);
+            directoryEnd = zip64Eocd;
+        }
+        // offsets are relative to the beginning of the archive, which may be preceded by a launch script
+        directoryStart = toInt(directoryEnd - directorySize);
+        directoryLength = toInt(directorySize);
+        int base = toInt(directoryStart - directoryOffset);
+
+        int count = toInt(entryCount);
+        entries = new HashMap<>(count * 4 / 3 + 1);
+        names = new String[count];
+        localHeaderOffsets = new int[count];
+        dataOffsets = new int[count];
+        compressedSizes = new int[count];
+        sizes = new int[count];
+        crcs = new int[count];
+        methods = new int[count];
+        dosTimes = new int[count];
+
+        int position = directoryStart;
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(position) != CEN_SIGNATURE) {
+                throw new ZipException("Invalid central directory header in " + file);
+            }
+            int nameLength = getUnsignedShort(position + 28);
+            int extraLength = getUnsignedShort(position + 30);
+            int commentLength = getUnsignedShort(position + 32);
+
+            long compressedSize = getUnsignedInt(position + 20);
+            long size = getUnsignedInt(position + 24);
+            long localHeaderOffset = getUnsignedInt(position + 42);
+            if (compressedSize == ZIP64_MAGIC || size == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC) {
+                int extra = position + CEN_HEADER_SIZE + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = getUnsignedShort(extra);
+                    int length = getUnsignedShort(extra + 2);
+                    if (id == ZIP64_EXTRA_ID) {
+                        int field = extra + 4;
+                        if (size == ZIP64_MAGIC) {
+                            size = buffer.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == ZIP64_MAGIC) {
+                            compressedSize = buffer.getLong(field);
+                            field += 8;
+                        }
+                        if (localHeaderOffset == ZIP64_MAGIC) {
+                            localHeaderOffset = buffer.getLong(field);
+                        }
+                        break;
+                    }
+                    extra += 4 + length;
+                }
+            }
+
+            String name = getString(position + CEN_HEADER_SIZE, nameLength);
+            names[i] = name;
+            methods[i] = getUnsignedShort(position + 10);
+            dosTimes[i] = buffer.getInt(position + 12);
+            compressedSizes[i] = toInt(compressedSize);
+            sizes[i] = toInt(size);
+            crcs[i] = buffer.getInt(position + 16);
+            localHeaderOffsets[i] = toInt(base + localHeaderOffset);
+            entries.putIfAbsent(name, i);
+            addDirectories(name);
+
+            position += CEN_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /**
+     * @return mapped jar shared by all callers, the file is mapped on first access
+     */
+    public static MappedJarFile open(File file) throws IOException {
+        File canonicalFile = file.getCanonicalFile();
+        MappedJarFile jarFile = openFiles.get(canonicalFile);
+        if (jarFile == null) {
+            synchronized (openFiles) {
+                jarFile = openFiles.get(canonicalFile);
+                if (jarFile == null) {
+                    jarFile = new MappedJarFile(canonicalFile);
+                    openFiles.put(canonicalFile, jarFile);
+                }
+            }
+        }
+        return jarFile;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return slice of the mapped file with the central directory, which lists names, sizes and CRCs of all entries
+     */
+    public ByteBuffer getCentralDirectory() {
+        ByteBuffer directory = buffer.duplicate();
+        directory.position(directoryStart);
+        directory.limit(directoryStart + directoryLength);
+        return directory.slice();
+    }
+
+    /**
+     * @return entry number or -1 if there is no such entry
+     */
+    public int getEntry(String name) {
+        Integer entry = entries.get(name);
+        return entry != null ? entry : -1;
+    }
+
+    /**
+     * @param name path ending with a delimiter or not
+     * @return whether the path is a directory, including directories without own entries
+     */
+    public boolean isDirectory(String name) {
+        if (name.isEmpty()) {
+            return true;
+        }
+        return directories.contains(name.endsWith("/") ? name.substring(0, name.length() - 1) : name);
+    }
+
+    public String[] getNames() {
+        return names;
+    }
+
+    public String getName(int entry) {
+        return names[entry];
+    }
+
+    public int getSize(int entry) {
+        return sizes[entry];
+    }
+
+    public int getCrc(int entry) {
+        return crcs[entry];
+    }
+
+    public int getMethod(int entry) {
+        return methods[entry];
+    }
+
+    public long getTime(int entry) {
+        int dosTime = dosTimes[entry];
+        int time = dosTime & 0xFFFF;
+        int date = dosTime >>> 16;
+        LocalDateTime dateTime = LocalDateTime.of(((date >> 9) & 0x7f) + 1980, Math.max((date >> 5) & 0x0f, 1),
+                Math.max(date & 0x1f, 1), (time >> 11) & 0x1f, (time >> 5) & 0x3f, Math.min((time << 1) & 0x3e, 59));
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * @return slice of the mapped file with the raw entry data, no bytes are copied
+     */
+    public ByteBuffer getData(int entry) throws IOException {
+        int start = getDataOffset(entry);
+        ByteBuffer data = buffer.duplicate();
+        data.position(start);
+        data.limit(start + compressedSizes[entry]);
+        return data.slice();
+    }
+
+    /**
+     * @return slice of the mapped file for a stored entry or null if the entry is compressed
+     */
+    public ByteBuffer getStoredData(int entry) throws IOException {
+        return methods[entry] == STORED ? getData(entry) : null;
+    }
+
+    public byte[] getBytes(int entry) throws IOException {
+        byte[] bytes = new byte[sizes[entry]];
+        ByteBuffer data = getData(entry);
+        if (methods[entry] == STORED) {
+            data.get(bytes);
+        } else if (methods[entry] == DEFLATED) {
+            inflate(data, bytes);
+        } else {
+            throw new ZipException(String.format("Unsupported compression method %d of %s", methods[entry], names[entry]));
+        }
+        return bytes;
+    }
+
+    public InputStream getInputStream(int entry) throws IOException {
+        if (methods[entry] == STORED) {
+            return new ByteBufferInputStream(getData(entry));
+        }
+        if (methods[entry] == DEFLATED && sizes[entry] > INFLATE_IN_MEMORY_LIMIT) {
+            Inflater inflater = new Inflater(true);
+            return new InflaterInputStream(new ByteBufferInputStream(getData(entry)), inflater) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inflater.end();
+                }
+            };
+        }
+        return new ByteArrayInputStream(getBytes(entry));
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+
+    protected void inflate(ByteBuffer data, byte[] target) throws IOException {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            int length = 0;
+            boolean paddingSupplied = false;
+            while (length < target.length) {
+                if (inflater.needsInput()) {
+                    if (data.hasRemaining()) {
+                        setInput(inflater, data);
+                    } else if (!paddingSupplied) {
+                        // zlib may need an extra byte when the header is omitted
+                        inflater.setInput(new byte[1]);
+                        paddingSupplied = true;
+                    } else {
+                        throw new EOFException("Unexpected end of deflated data");
+                    }
+                }
+                int inflated = inflater.inflate(target, length, target.length - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != target.length) {
+                throw new ZipException(String.format("Invalid entry size, expected %d but got %d", target.length, length));
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.reset();
+            if (inflaters.size() < INFLATER_POOL_SIZE) {
+                inflaters.offer(inflater);
+            } else {
+                inflater.end();
+            }
+        }
+    }
+
+    protected void setInput(Inflater inflater, ByteBuffer data) throws IOException {
+        if (inflaterSetInputBuffer != null) {
+            try {
+                // the inflater reads the mapped buffer directly and advances its position
+                inflaterSetInputBuffer.invokeExact(inflater, data);
+            } catch (Throwable e) {
+                throw new IOException("Unable to pass input to inflater", e);
+            }
+        } else {
+            // before Java 11 an inflater only accepts arrays, so the compressed data is copied in chunks
+            byte[] input = inputBuffers.get();
+            int length = Math.min(input.length, data.remaining());
+            data.get(input, 0, length);
+            inflater.setInput(input, 0, length);
+        }
+    }
+
+    protected int getDataOffset(int entry) throws IOException {
+        int offset = dataOffsets[entry];
+        if (offset == 0) {
+            int localHeader = localHeaderOffsets[entry];
+            if (buffer.getInt(localHeader) != LOC_SIGNATURE) {
+                throw new ZipException("Invalid local header of " + names[entry]);
+            }
+            offset = localHeader + LOC_HEADER_SIZE + getUnsignedShort(localHeader + 26) + getUnsignedShort(localHeader + 28);
+            dataOffsets[entry] = offset;
+        }
+        return offset;
+    }
+
+    protected int findEndOfCentralDirectory() throws ZipException {
+        int limit = Math.max(0, buffer.limit() - EOCD_SIZE - MAX_COMMENT_SIZE);
+        for (int position = buffer.limit() - EOCD_SIZE; position >= limit; position--) {
+            if (buffer.getInt(position) == EOCD_SIGNATURE) {
+                return position;
+            }
+        }
+        throw new ZipException("End of central directory not found in " + file);
+    }
+
+    protected void addDirectories(String name) {
+        int separator = name.lastIndexOf('/', name.endsWith("/") ? name.length() - 2 : name.length() - 1);
+        if (name.endsWith("/")) {
+            directories.add(name.substring(0, name.length() - 1));
+        }
+        while (separator > 0 && directories.add(name.substring(0, separator))) {
+            separator = name.lastIndexOf('/', separator - 1);
+        }
+    }
+
+    protected int getUnsignedShort(int position) {
+        return buffer.getShort(position) & 0xFFFF;
+    }
+
+    protected long getUnsignedInt(int position) {
+        return buffer.getInt(position) & 0xFFFFFFFFL;
+    }
+
+    protected String getString(int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer name = buffer.duplicate();
+        name.position(position);
+        name.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    protected int toInt(long value) throws ZipException {
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new ZipException("Invalid offset or size in " + file);
+        }
+        return (int) value;
+    }
+
+    private static MethodHandle findInflaterSetInputBuffer() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Inflater.class, "setInput",
+                    MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    protected static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
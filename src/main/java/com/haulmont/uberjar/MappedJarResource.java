@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.util.URIUtil;
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.util.resource.URLResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Jetty resource of a {@link MappedJarFile} entry, used as the resource base of web app contexts.
+ */
+public class MappedJarResource extends URLResource {
+    private final MappedJarFile jarFile;
+    private final String entryName;
+    private final int entry;
+
+    public MappedJarResource(URL url) throws IOException {
+        this(MappedJarFile.open(MappedJarURLs.getJarFile(url)), MappedJarURLs.getEntryName(url), url);
+    }
+
+    protected MappedJarResource(MappedJarFile jarFile, String entryName, URL url) {
+        super(url, null);
+        this.jarFile = jarFile;
+        this.entryName = entryName;
+        this.entry = jarFile.getEntry(entryName);
+    }
+
+    public MappedJarFile getJarFile() {
+        return jarFile;
+    }
+
+    /**
+     * @return entry number or -1 for a directory or a missing entry
+     */
+    public int getEntry() {
+        return entry;
+    }
+
+    @Override
+    public boolean exists() {
+        return entry >= 0 || jarFile.isDirectory(entryName);
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return (entry < 0 || entryName.endsWith("/")) && jarFile.isDirectory(entryName);
+    }
+
+    @Override
+    public long lastModified() {
+        return entry >= 0 ? jarFile.getTime(entry) : -1;
+    }
+
+    @Override
+    public long length() {
+        return entry >= 0 ? jarFile.getSize(entry) : -1;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (entry >= 0) {
+            return jarFile.getInputStream(entry);
+        }
+        if (isDirectory()) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        throw new IOException(entryName + " does not exist");
+    }
+
+    @Override
+    public ReadableByteChannel getReadableByteChannel() throws IOException {
+        return Channels.newChannel(getInputStream());
+    }
+
+    @Override
+    public File getFile() {
+        return null;
+    }
+
+    @Override
+    public String[] list() {
+        if (!isDirectory()) {
+            return null;
+        }
+        Set<String> children = new LinkedHashSet<>();
+        for (String name : jarFile.getNames()) {
+            if (name.startsWith(entryName) && name.length() > entryName.length()) {
+                int separator = name.indexOf('/', entryName.length());
+                children.add(separator < 0 ? name.substring(entryName.length()) :
+                        name.substring(entryName.length(), separator + 1));
+            }
+        }
+        return children.toArray(new String[0]);
+    }
+
+    @Override
+    public Resource addPath(String path) throws IOException {
+        if (path == null) {
+            throw new MalformedURLException();
+        }
+        String canonicalPath = URIUtil.canonicalPath(path);
+        if (canonicalPath == null) {
+            throw new MalformedURLException(path);
+        }
+        String base = entryName.isEmpty() || entryName.endsWith("/") ? entryName : entryName + "/";
+        String name = canonicalPath.startsWith("/") ? base + canonicalPath.substring(1) : base + canonicalPath;
+        return new MappedJarResource(jarFile, name, MappedJarURLs.create(jarFile.getFile(), name));
+    }
+
+    @Override
+    public boolean isContainedIn(Resource containingResource) {
+        return false;
+    }
+}
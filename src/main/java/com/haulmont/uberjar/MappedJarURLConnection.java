@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+public class MappedJarURLConnection extends URLConnection {
+    private MappedJarFile jarFile;
+    private String entryName;
+    private int entry = -1;
+
+    public MappedJarURLConnection(URL url) {
+        super(url);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (!connected) {
+            jarFile = MappedJarFile.open(MappedJarURLs.getJarFile(url));
+            entryName = MappedJarURLs.getEntryName(url);
+            entry = jarFile.getEntry(entryName);
+            if (entry < 0 && !jarFile.isDirectory(entryName)) {
+                throw new FileNotFoundException(url.toString());
+            }
+            connected = true;
+        }
+    }
+
+    public MappedJarFile getJarFile() throws IOException {
+        connect();
+        return jarFile;
+    }
+
+    /**
+     * @return entry number or -1 for a directory
+     */
+    public int getEntry() throws IOException {
+        connect();
+        return entry;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        connect();
+        return entry >= 0 ? jarFile.getInputStream(entry) : new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public int getContentLength() {
+        long length = getContentLengthLong();
+        return length <= Integer.MAX_VALUE ? (int) length : -1;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        try {
+            connect();
+        } catch (IOException e) {
+            return -1;
+        }
+        return entry >= 0 ? jarFile.getSize(entry) : -1;
+    }
+
+    @Override
+    public long getLastModified() {
+        try {
+            connect();
+        } catch (IOException e) {
+            return 0;
+        }
+        return entry >= 0 ? jarFile.getTime(entry) : 0;
+    }
+
+    @Override
+    public String getContentType() {
+        String contentType = guessContentTypeFromName(url.getPath());
+        return contentType != null ? contentType : "content/unknown";
+    }
+}
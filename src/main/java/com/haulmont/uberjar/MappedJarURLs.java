@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import com.haulmont.uberjar.protocol.uberjar.Handler;
+import org.eclipse.jetty.util.URIUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLStreamHandler;
+import java.nio.file.Paths;
+
+/**
+ * URLs of entries served by {@link MappedJarFile}, e.g. {@code uberjar:/opt/app/app.jar!/LIB-INF/shared/}.
+ */
+public final class MappedJarURLs {
+    public static final String PROTOCOL = "uberjar";
+
+    private static final String SEPARATOR = "!/";
+
+    private static final URLStreamHandler handler = new Handler();
+
+    private MappedJarURLs() {
+    }
+
+    public static URL create(File jarFile, String entryName) throws MalformedURLException {
+        return new URL(PROTOCOL, null, -1, jarFile.toURI().getRawPath() + SEPARATOR + URIUtil.encodePath(entryName), handler);
+    }
+
+    public static boolean isMappedURL(URL url) {
+        return PROTOCOL.equals(url.getProtocol());
+    }
+
+    /**
+     * @return URL of the same entry served from the mapped jar or the given URL if it isn't an entry of a local jar
+     */
+    public static URL toMappedURL(URL url) {
+        if (url == null || !"jar".equals(url.getProtocol())) {
+            return url;
+        }
+        String file = url.getFile();
+        int separator = file.indexOf(SEPARATOR);
+        if (separator < 0 || !file.startsWith("file:")) {
+            return url;
+        }
+        try {
+            File jarFile = Paths.get(new URI(file.substring(0, separator))).toFile();
+            return create(jarFile, URIUtil.decodePath(file.substring(separator + SEPARATOR.length())));
+        } catch (URISyntaxException | IllegalArgumentException | MalformedURLException e) {
+            return url;
+        }
+    }
+
+    public static URL[] toMappedURLs(URL[] urls) {
+        URL[] mappedUrls = new URL[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            mappedUrls[i] = toMappedURL(urls[i]);
+        }
+        return mappedUrls;
+    }
+
+    public static File getJarFile(URL url) throws IOException {
+        String path = url.getPath();
+        int separator = path.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new MalformedURLException("No entry separator in " + url);
+        }
+        try {
+            return Paths.get(URI.create("file:" + path.substring(0, separator))).toFile();
+        } catch (IllegalArgumentException e) {
+            throw new MalformedURLException("Invalid jar path in " + url);
+        }
+    }
+
+    public static String getEntryName(URL url) throws IOException {
+        String path = url.getPath();
+        int separator = path.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new MalformedURLException("No entry separator in " + url);
+        }
+        return URIUtil.decodePath(path.substring(separator + SEPARATOR.length()));
+    }
+}
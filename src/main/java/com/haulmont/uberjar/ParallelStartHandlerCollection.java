@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.handler.HandlerCollection;
+import org.eclipse.jetty.util.MultiException;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handler collection that starts its handlers concurrently on a bounded executor. A handler with declared
+ * dependencies starts only after all of them have started, and is not started if one of them has failed.
+ */
+public class ParallelStartHandlerCollection extends HandlerCollection {
+    private final int threads;
+    private final Map<Handler, List<Handler>> dependencies = new HashMap<>();
+
+    public ParallelStartHandlerCollection(int threads) {
+        this.threads = threads;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void addDependency(Handler handler, Handler dependency) {
+        dependencies.computeIfAbsent(handler, h -> new ArrayList<>()).add(dependency);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        Handler[] handlers = getHandlers();
+        if (handlers != null && handlers.length > 1 && threads > 1) {
+            startHandlers(handlers);
+        }
+        super.doStart();
+    }
+
+    protected void startHandlers(Handler[] handlers) throws Exception {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, handlers.length), runnable -> {
+            Thread thread = new Thread(runnable, "context-start-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<Handler, CompletableFuture<Void>> starts = new LinkedHashMap<>();
+        try {
+            for (Handler handler : handlers) {
+                scheduleStart(handler, starts, executor, new HashSet<>());
+            }
+            MultiException failures = new MultiException();
+            for (CompletableFuture<Void> start : starts.values()) {
+                try {
+                    start.join();
+                } catch (CompletionException | CancellationException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    if (!(cause instanceof DependencyFailedException)) {
+                        failures.add(cause);
+                    }
+                }
+            }
+            if (failures.size() > 0) {
+                stopStarted(handlers);
+                failures.ifExceptionThrow();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    protected CompletableFuture<Void> scheduleStart(Handler handler, Map<Handler, CompletableFuture<Void>> starts,
+                                                    Executor executor, Set<Handler> visiting) {
+        CompletableFuture<Void> start = starts.get(handler);
+        if (start != null) {
+            return start;
+        }
+        if (!visiting.add(handler)) {
+            throw new IllegalStateException("Cyclic start dependency of " + handler);
+        }
+        List<CompletableFuture<Void>> dependencyStarts = new ArrayList<>();
+        for (Handler dependency : dependencies.getOrDefault(handler, Collections.emptyList())) {
+            dependencyStarts.add(scheduleStart(dependency, starts, executor, visiting));
+        }
+        start = CompletableFuture.allOf(dependencyStarts.toArray(new CompletableFuture<?>[0]))
+                .handle((result, failure) -> {
+                    if (failure != null) {
+                        throw new DependencyFailedException(handler);
+                    }
+                    return result;
+                })
+                .thenRunAsync(() -> {
+                    try {
+                        handler.start();
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor);
+        starts.put(handler, start);
+        return start;
+    }
+
+    protected void stopStarted(Handler[] handlers) {
+        for (int i = handlers.length - 1; i >= 0; i--) {
+            if (handlers[i].isStarted()) {
+                try {
+                    handlers[i].stop();
+                } catch (Exception e) {
+                    System.out.println(String.format("Unable to stop %s: %s", handlers[i], e));
+                }
+            }
+        }
+    }
+
+    protected static class DependencyFailedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public DependencyFailedException(Handler handler) {
+            super("Dependency of " + handler + " failed to start");
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static com.haulmont.uberjar.CubaJettyUtils.*;
+import static java.lang.String.format;
+
+/**
+ * Writes gzip compressed {@code .gz} siblings of static resources of the applications packed into an uber jar,
+ * so that they are sent to clients accepting gzip without compressing them on each request.
+ */
+public class PrecompressedAssetsWriter {
+    public static final String GZIP_SUFFIX = ".gz";
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    protected static final String[] APP_PATHS_IN_JAR = {WEB_PATH_IN_JAR, PORTAL_PATH_IN_JAR, FRONT_PATH_IN_JAR};
+    protected static final Set<String> COMPRESSIBLE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "html", "htm", "css", "js", "mjs", "map", "json", "xml", "txt", "svg", "ttf", "otf", "eot", "ico", "scss"));
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: PrecompressedAssetsWriter <uber jar> [min size in bytes]");
+            System.exit(1);
+        }
+        File jarFile = new File(args[0]);
+        if (!jarFile.isFile()) {
+            System.out.println(format("Uber jar %s does not exist", jarFile));
+            System.exit(1);
+        }
+        int minSize = DEFAULT_MIN_SIZE;
+        if (args.length > 1) {
+            try {
+                minSize = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                System.out.println("min size has to be number");
+                System.exit(1);
+            }
+        }
+        URI uri = URI.create("jar:" + jarFile.toURI());
+        int count = 0;
+        try (FileSystem fileSystem = FileSystems.newFileSystem(uri, Collections.emptyMap())) {
+            for (String appPath : APP_PATHS_IN_JAR) {
+                Path appRoot = fileSystem.getPath(appPath);
+                if (Files.isDirectory(appRoot)) {
+                    for (Path asset : findAssets(appRoot, minSize)) {
+                        if (writeGzip(asset)) {
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println(format("Compressed %d static resources of %s", count, jarFile.getName()));
+    }
+
+    protected static List<Path> findAssets(Path appRoot, int minSize) throws IOException {
+        try (Stream<Path> paths = Files.walk(appRoot)) {
+            return paths
+                    .filter(path -> !isPrivate(appRoot.relativize(path)))
+                    .filter(path -> isCompressible(path.getFileName().toString()))
+                    .filter(path -> Files.isRegularFile(path) && size(path) >= minSize)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    protected static boolean isPrivate(Path relativePath) {
+        if (relativePath.getNameCount() == 0) {
+            return false;
+        }
+        String first = relativePath.getName(0).toString();
+        return "WEB-INF".equalsIgnoreCase(first) || "META-INF".equalsIgnoreCase(first);
+    }
+
+    public static boolean isCompressible(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSIBLE_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return true if the compressed variant is smaller than the resource and has been written
+     */
+    protected static boolean writeGzip(Path asset) throws IOException {
+        byte[] content = Files.readAllBytes(asset);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length / 2);
+        try (GZIPOutputStream out = new GZIPOutputStream(buffer) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            out.write(content);
+        }
+        Path gzipPath = asset.resolveSibling(asset.getFileName() + GZIP_SUFFIX);
+        if (buffer.size() >= content.length) {
+            Files.deleteIfExists(gzipPath);
+            return false;
+        }
+        try (OutputStream out = Files.newOutputStream(gzipPath)) {
+            buffer.writeTo(out);
+        }
+        Files.setLastModifiedTime(gzipPath, Files.getLastModifiedTime(asset));
+        return true;
+    }
+
+    private static long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
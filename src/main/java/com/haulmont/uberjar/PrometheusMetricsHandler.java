@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves {@link RequestMetrics} in the Prometheus text format on a path of the server or on a separate connector,
+ * where nothing else is served.
+ */
+public class PrometheusMetricsHandler extends HandlerWrapper {
+    public static final String DEFAULT_PATH = "/metrics";
+
+    protected final RequestMetrics metrics;
+    protected final String path;
+    protected final Connector metricsConnector;
+
+    /**
+     * @param path             path of the metrics on application connectors or null
+     * @param metricsConnector connector serving only metrics at {@link #DEFAULT_PATH} or null
+     */
+    public PrometheusMetricsHandler(RequestMetrics metrics, String path, Connector metricsConnector) {
+        this.metrics = metrics;
+        this.path = path;
+        this.metricsConnector = metricsConnector;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        boolean metricsOnly = metricsConnector != null && baseRequest.getHttpChannel().getConnector() == metricsConnector;
+        if (metricsOnly ? DEFAULT_PATH.equals(target) : target.equals(path)) {
+            baseRequest.setHandled(true);
+            if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+                response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+                return;
+            }
+            byte[] content = metrics.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+            response.setContentType(RequestMetrics.CONTENT_TYPE);
+            response.setHeader("Cache-Control", "no-store");
+            response.setContentLength(content.length);
+            if ("GET".equals(request.getMethod())) {
+                try (OutputStream out = response.getOutputStream()) {
+                    out.write(content);
+                }
+            }
+        } else if (metricsOnly) {
+            baseRequest.setHandled(true);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        } else {
+            super.handle(target, baseRequest, request, response);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request statistics of application contexts, written in the Prometheus text format.
+ * <p>
+ * Counters are {@link LongAdder}s, so recording a request takes no lock and allocates nothing.
+ */
+public class RequestMetrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Upper bounds of the latency buckets in seconds.
+     */
+    protected static final double[] BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    protected final List<ContextMetrics> contexts = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return metrics of the context with the given name, created on the first call
+     */
+    public synchronized ContextMetrics getContextMetrics(String name) {
+        for (ContextMetrics contextMetrics : contexts) {
+            if (contextMetrics.getName().equals(name)) {
+                return contextMetrics;
+            }
+        }
+        ContextMetrics contextMetrics = new ContextMetrics(name);
+        contexts.add(contextMetrics);
+        return contextMetrics;
+    }
+
+    public String toPrometheusText() {
+        StringBuilder sb = new StringBuilder();
+        writeHeader(sb, "uberjar_requests_active", "gauge", "Requests being handled by the context.");
+        for (ContextMetrics contextMetrics : contexts) {
+            writeSample(sb, "uberjar_requests_active", contextMetrics, null, null, contextMetrics.activeRequests.sum());
+        }
+        writeHeader(sb, "uberjar_requests_total", "counter", "Requests completed by the context by status class.");
+        for (ContextMetrics contextMetrics : contexts) {
+            for (int i = 0; i < contextMetrics.statuses.length; i++) {
+                writeSample(sb, "uberjar_requests_total", contextMetrics, "status", (i + 1) + "xx", contextMetrics.statuses[i].sum());
+            }
+        }
+        writeHeader(sb, "uberjar_request_bytes_total", "counter", "Request content bytes received by the context.");
+        for (ContextMetrics contextMetrics : contexts) {
+            writeSample(sb, "uberjar_request_bytes_total", contextMetrics, null, null, contextMetrics.requestBytes.sum());
+        }
+        writeHeader(sb, "uberjar_response_bytes_total", "counter", "Response content bytes written by the context.");
+        for (ContextMetrics contextMetrics : contexts) {
+            writeSample(sb, "uberjar_response_bytes_total", contextMetrics, null, null, contextMetrics.responseBytes.sum());
+        }
+        writeHeader(sb, "uberjar_request_duration_seconds", "histogram", "Time from the start to the completion of requests.");
+        for (ContextMetrics contextMetrics : contexts) {
+            long count = 0;
+            for (int i = 0; i < contextMetrics.buckets.length; i++) {
+                count += contextMetrics.buckets[i].sum();
+                String bound = i < BUCKETS.length ? Double.toString(BUCKETS[i]) : "+Inf";
+                writeSample(sb, "uberjar_request_duration_seconds_bucket", contextMetrics, "le", bound, count);
+            }
+            sb.append("uberjar_request_duration_seconds_sum{context=\"").append(contextMetrics.getName()).append("\"} ")
+                    .append(contextMetrics.durationNanos.sum() / 1e9).append('\n');
+            writeSample(sb, "uberjar_request_duration_seconds_count", contextMetrics, null, null, count);
+        }
+        return sb.toString();
+    }
+
+    protected void writeHeader(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    protected void writeSample(StringBuilder sb, String name, ContextMetrics contextMetrics,
+                               String label, String labelValue, long value) {
+        sb.append(name).append("{context=\"").append(contextMetrics.getName()).append('"');
+        if (label != null) {
+            sb.append(',').append(label).append("=\"").append(labelValue).append('"');
+        }
+        sb.append("} ").append(value).append('\n');
+    }
+
+    /**
+     * Counters of one context.
+     */
+    public static class ContextMetrics {
+        protected final String name;
+        protected final long[] bucketBounds = new long[BUCKETS.length];
+        protected final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        protected final LongAdder[] statuses = new LongAdder[5];
+        protected final LongAdder durationNanos = new LongAdder();
+        protected final LongAdder requestBytes = new LongAdder();
+        protected final LongAdder responseBytes = new LongAdder();
+        protected final LongAdder activeRequests = new LongAdder();
+
+        public ContextMetrics(String name) {
+            this.name = name.toLowerCase(Locale.ROOT);
+            for (int i = 0; i < BUCKETS.length; i++) {
+                bucketBounds[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+            }
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = new LongAdder();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void requestStarted() {
+            activeRequests.increment();
+        }
+
+        public void requestCompleted(int status, long durationNanos, long requestBytes, long responseBytes) {
+            activeRequests.decrement();
+            int statusClass = status / 100 - 1;
+            statuses[Math.max(0, Math.min(statusClass, statuses.length - 1))].increment();
+            int bucket = 0;
+            while (bucket < bucketBounds.length && durationNanos > bucketBounds[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            this.durationNanos.add(durationNanos);
+            this.requestBytes.add(requestBytes);
+            this.responseBytes.add(responseBytes);
+        }
+    }
+}
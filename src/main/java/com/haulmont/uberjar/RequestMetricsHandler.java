@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records requests of the wrapped context into {@link RequestMetrics.ContextMetrics}.
+ * <p>
+ * Requests are measured from entering the handler to leaving it, async requests until completion of the async
+ * context, starting from the request time stamp.
+ */
+public class RequestMetricsHandler extends HandlerWrapper {
+    protected final ContextHandler context;
+    protected final RequestMetrics.ContextMetrics metrics;
+    protected final AsyncListener completionListener = new CompletionListener();
+
+    public RequestMetricsHandler(ContextHandler context, RequestMetrics.ContextMetrics metrics) {
+        this.context = context;
+        this.metrics = metrics;
+        setHandler(context);
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        if (baseRequest.getDispatcherType() != DispatcherType.REQUEST || !context.checkContextPath(target)) {
+            super.handle(target, baseRequest, request, response);
+            return;
+        }
+        long start = System.nanoTime();
+        metrics.requestStarted();
+        boolean async = false;
+        boolean failed = true;
+        try {
+            super.handle(target, baseRequest, request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(completionListener);
+                async = true;
+            }
+            failed = false;
+        } finally {
+            if (!async) {
+                complete(baseRequest, System.nanoTime() - start, failed);
+            }
+        }
+    }
+
+    protected void complete(Request baseRequest, long durationNanos, boolean failed) {
+        Response response = baseRequest.getResponse();
+        metrics.requestCompleted(failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus(),
+                durationNanos, baseRequest.getHttpInput().getContentReceived(), response.getHttpOutput().getWritten());
+    }
+
+    protected class CompletionListener implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            ServletRequest request = event.getSuppliedRequest() != null
+                    ? event.getSuppliedRequest() : event.getAsyncContext().getRequest();
+            Request baseRequest = Request.getBaseRequest(request);
+            if (baseRequest != null) {
+                long durationMillis = Math.max(0, System.currentTimeMillis() - baseRequest.getTimeStamp());
+                complete(baseRequest, TimeUnit.MILLISECONDS.toNanos(durationMillis), false);
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // async processing is restarted, the request completes with the new async context
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
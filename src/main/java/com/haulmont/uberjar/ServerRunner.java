@@ -20,19 +20,27 @@ import org.apache.commons.cli.*;
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.io.OutputStream;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import static com.haulmont.uberjar.CubaJettyUtils.*;
 import static java.lang.String.format;
 
 public class ServerRunner {
-
+    protected static final List<String> CONTEXT_NAMES = Arrays.asList("core", "web", "portal", "front");
 
     public static void main(String[] args) {
         ServerRunner runner = new ServerRunner();
@@ -74,6 +82,258 @@ public class ServerRunner {
                 .hasArg()
                 .desc("secret key on startup which must also be present on the shutdown command to enhance security").argName("stopKey").build();
 
+        Option classLoaderIndexOption = Option.builder("classLoaderIndex")
+                .desc("index entries of application class loaders to speed up class and resource lookup, " +
+                        "read from LIB-INF/uberjar.idx if it matches the jar").build();
+
+        Option mappedJarOption = Option.builder("mappedJar")
+                .desc("read classes and resources from the memory-mapped jar instead of jar URLs").build();
+
+        Option localTransportOption = Option.builder("localTransport")
+                .desc("serve local: URLs in-process and use them for calls from Web and Portal to Core of a single jar").build();
+
+        Option startThreadsOption = Option.builder("startThreads")
+                .hasArg()
+                .desc("number of threads starting independent application contexts in parallel").argName("startThreads").build();
+
+        Option staticCacheSizeOption = Option.builder("staticCacheSize")
+                .hasArg()
+                .desc("size of the in-memory cache of static resources in megabytes, the cache is disabled by default").argName("staticCacheSize").build();
+
+        Option staticCacheMaxFileSizeOption = Option.builder("staticCacheMaxFileSize")
+                .hasArg()
+                .desc("max size of a static resource kept in the cache in kilobytes, 1024 by default").argName("staticCacheMaxFileSize").build();
+
+        Option staticCacheDirectOption = Option.builder("staticCacheDirect")
+                .desc("keep cached static resources in direct buffers outside of the heap").build();
+
+        Option explodedCacheOption = Option.builder("explodedCache")
+                .desc("extract LIB-INF once into a cache directory under app.home and load applications from it").build();
+
+        Option minThreadsOption = Option.builder("minThreads")
+                .hasArg()
+                .desc("minimum number of server threads, 8 by default").argName("minThreads").build();
+
+        Option maxThreadsOption = Option.builder("maxThreads")
+                .hasArg()
+                .desc("maximum number of server threads, 200 by default").argName("maxThreads").build();
+
+        Option threadIdleTimeoutOption = Option.builder("threadIdleTimeout")
+                .hasArg()
+                .desc("time in milliseconds after which idle threads above the minimum are stopped, 60000 by default").argName("threadIdleTimeout").build();
+
+        Option threadQueueSizeOption = Option.builder("threadQueueSize")
+                .hasArg()
+                .desc("maximum number of queued jobs, unbounded by default").argName("threadQueueSize").build();
+
+        Option reservedThreadsOption = Option.builder("reservedThreads")
+                .hasArg()
+                .desc("number of threads reserved for producing and handling requests without queuing, chosen by Jetty by default").argName("reservedThreads").build();
+
+        Option virtualThreadsOption = Option.builder("virtualThreads")
+                .desc("handle requests on virtual threads, requires Java 21 or newer").build();
+
+        Option contextMaxRequestsOption = Option.builder("contextMaxRequests")
+                .hasArg()
+                .desc("max number of requests handled by a context at the same time, e.g. core=100,web=60,portal=20,front=20; "
+                        + "keep the sum below maxThreads so that Web and Portal can't starve Core").argName("contextMaxRequests").build();
+
+        Option contextMaxQueuedOption = Option.builder("contextMaxQueued")
+                .hasArg()
+                .desc("max number of requests waiting for a context, e.g. core=200,web=100, equals to contextMaxRequests by default").argName("contextMaxQueued").build();
+
+        Option contextQueueTimeoutOption = Option.builder("contextQueueTimeout")
+                .hasArg()
+                .desc("max time in milliseconds a request waits for a context, 30000 by default").argName("contextQueueTimeout").build();
+
+        Option lazyContextsOption = Option.builder("lazyContexts")
+                .hasArg()
+                .desc("contexts created and started on the first request instead of at boot, e.g. portal,front").argName("lazyContexts").build();
+
+        Option lazyStartTimeoutOption = Option.builder("lazyStartTimeout")
+                .hasArg()
+                .desc("max seconds a request waits for a lazy context to start, 60 by default").argName("lazyStartTimeout").build();
+
+        Option contextIdleTimeoutOption = Option.builder("contextIdleTimeout")
+                .hasArg()
+                .desc("seconds without requests after which a lazy context is stopped to free its class loader, " +
+                        "0 keeps it by default; in-memory sessions are lost unless sessionStoreDir or sessionDataSource is set")
+                .argName("contextIdleTimeout").build();
+
+        Option webSocketMaxTextMessageSizeOption = Option.builder("webSocketMaxTextMessageSize")
+                .hasArg()
+                .desc("max size in bytes of a WebSocket text message per context, e.g. web=131072,portal=65536").argName("webSocketMaxTextMessageSize").build();
+
+        Option webSocketMaxBinaryMessageSizeOption = Option.builder("webSocketMaxBinaryMessageSize")
+                .hasArg()
+                .desc("max size in bytes of a WebSocket binary message per context, e.g. web=131072").argName("webSocketMaxBinaryMessageSize").build();
+
+        Option webSocketInputBufferSizeOption = Option.builder("webSocketInputBufferSize")
+                .hasArg()
+                .desc("size in bytes of the WebSocket read buffer per context, e.g. web=8192").argName("webSocketInputBufferSize").build();
+
+        Option webSocketIdleTimeoutOption = Option.builder("webSocketIdleTimeout")
+                .hasArg()
+                .desc("milliseconds after which an idle WebSocket session is closed per context, e.g. web=300000").argName("webSocketIdleTimeout").build();
+
+        Option webSocketAsyncSendTimeoutOption = Option.builder("webSocketAsyncSendTimeout")
+                .hasArg()
+                .desc("milliseconds after which an unfinished asynchronous WebSocket send fails per context, e.g. web=30000")
+                .argName("webSocketAsyncSendTimeout").build();
+
+        Option webSocketMaxOutgoingFramesOption = Option.builder("webSocketMaxOutgoingFrames")
+                .hasArg()
+                .desc("max number of frames queued for sending per WebSocket session per context, e.g. web=1000, unlimited by default")
+                .argName("webSocketMaxOutgoingFrames").build();
+
+        Option webSocketNoDeflateOption = Option.builder("webSocketNoDeflate")
+                .hasArg()
+                .desc("contexts that don't compress WebSocket messages with permessage-deflate, e.g. web,portal").argName("webSocketNoDeflate").build();
+
+        Option http2Option = Option.builder("http2")
+                .desc("accept HTTP/2 on the server port as h2c and on the TLS port when a key store is given").build();
+
+        Option http2MaxConcurrentStreamsOption = Option.builder("http2MaxConcurrentStreams")
+                .hasArg()
+                .desc("max number of concurrent HTTP/2 streams per connection, 128 by default").argName("http2MaxConcurrentStreams").build();
+
+        Option http2StreamWindowOption = Option.builder("http2StreamWindow")
+                .hasArg()
+                .desc("initial HTTP/2 flow-control window of a stream in bytes, 524288 by default").argName("http2StreamWindow").build();
+
+        Option http2SessionWindowOption = Option.builder("http2SessionWindow")
+                .hasArg()
+                .desc("initial HTTP/2 flow-control window of a connection in bytes, 1048576 by default").argName("http2SessionWindow").build();
+
+        Option bufferPoolBuffersOption = Option.builder("bufferPoolBuffers")
+                .hasArg()
+                .desc("kind of network buffers, heap or direct, chosen by each connection by default").argName("bufferPoolBuffers").build();
+
+        Option bufferPoolMinCapacityOption = Option.builder("bufferPoolMinCapacity")
+                .hasArg()
+                .desc("min capacity in bytes of pooled network buffers, 0 by default").argName("bufferPoolMinCapacity").build();
+
+        Option bufferPoolFactorOption = Option.builder("bufferPoolFactor")
+                .hasArg()
+                .desc("capacity step in bytes between buffer pool buckets, 1024 by default").argName("bufferPoolFactor").build();
+
+        Option bufferPoolMaxCapacityOption = Option.builder("bufferPoolMaxCapacity")
+                .hasArg()
+                .desc("max capacity in bytes of pooled network buffers, larger ones are allocated each time, 65536 by default")
+                .argName("bufferPoolMaxCapacity").build();
+
+        Option bufferPoolMaxQueueLengthOption = Option.builder("bufferPoolMaxQueueLength")
+                .hasArg()
+                .desc("max number of buffers retained per bucket, unlimited by default").argName("bufferPoolMaxQueueLength").build();
+
+        Option bufferPoolMaxHeapMemoryOption = Option.builder("bufferPoolMaxHeapMemory")
+                .hasArg()
+                .desc("max heap memory in megabytes retained by the buffer pool, a quarter of the max heap by default")
+                .argName("bufferPoolMaxHeapMemory").build();
+
+        Option bufferPoolMaxDirectMemoryOption = Option.builder("bufferPoolMaxDirectMemory")
+                .hasArg()
+                .desc("max direct memory in megabytes retained by the buffer pool, a quarter of the max heap by default")
+                .argName("bufferPoolMaxDirectMemory").build();
+
+        Option sslPortOption = Option.builder("sslPort")
+                .hasArg()
+                .desc("TLS port, 8443 by default, used when a key store is given").argName("sslPort").build();
+
+        Option keyStoreOption = Option.builder("keyStore")
+                .hasArg()
+                .desc("key store with the server certificate, enables the TLS connector").argName("keyStore").build();
+
+        Option keyStorePasswordOption = Option.builder("keyStorePassword")
+                .hasArg()
+                .desc("key store password, plain or obfuscated with Jetty OBF: prefix").argName("keyStorePassword").build();
+
+        Option unixSocketOption = Option.builder("unixSocket")
+                .hasArg()
+                .desc("also listen on the Unix domain socket with this path, requires Java 16 or jetty-unixsocket").argName("unixSocket").build();
+
+        Option unixSocketPermissionsOption = Option.builder("unixSocketPermissions")
+                .hasArg()
+                .desc("permissions of the Unix domain socket file, e.g. rw-rw----").argName("unixSocketPermissions").build();
+
+        Option unixSocketOnlyOption = Option.builder("unixSocketOnly")
+                .desc("listen on the Unix domain socket instead of the server port").build();
+
+        Option metricsPortOption = Option.builder("metricsPort")
+                .hasArg()
+                .desc("port serving request metrics of contexts in the Prometheus format at /metrics").argName("metricsPort").build();
+
+        Option metricsPathOption = Option.builder("metricsPath")
+                .hasArg()
+                .desc("path serving request metrics of contexts in the Prometheus format on the server port").argName("metricsPath").build();
+
+        Option accessLogOption = Option.builder("accessLog")
+                .hasArg()
+                .desc("access log file, rotated daily if the name contains yyyy_mm_dd").argName("accessLog").build();
+
+        Option accessLogRetainDaysOption = Option.builder("accessLogRetainDays")
+                .hasArg()
+                .desc("days to keep rotated access log files, 31 by default").argName("accessLogRetainDays").build();
+
+        Option accessLogCapacityOption = Option.builder("accessLogCapacity")
+                .hasArg()
+                .desc("max number of access log lines waiting to be written, further lines are dropped, 8192 by default")
+                .argName("accessLogCapacity").build();
+
+        Option drainOption = Option.builder("drain")
+                .desc("on stop, stop accepting connections and wait for in-flight requests and WebSocket sessions to finish").build();
+
+        Option drainTimeoutOption = Option.builder("drainTimeout")
+                .hasArg()
+                .desc("max seconds to wait for in-flight requests on stop, 30 by default").argName("drainTimeout").build();
+
+        Option sessionStoreDirOption = Option.builder("sessionStoreDir")
+                .hasArg()
+                .desc("directory to persist HTTP sessions in").argName("sessionStoreDir").build();
+
+        Option sessionDataSourceOption = Option.builder("sessionDataSource")
+                .hasArg()
+                .desc("JNDI name of a data source to persist HTTP sessions in, e.g. java:comp/env/jdbc/CubaDS of jettyEnvPath")
+                .argName("sessionDataSource").build();
+
+        Option sessionIdleTimeoutOption = Option.builder("sessionIdleTimeout")
+                .hasArg()
+                .desc("seconds after which an idle session is passivated to the session store and removed from memory, " +
+                        "0 removes sessions after each request to share them between nodes").argName("sessionIdleTimeout").build();
+
+        Option sessionWritePeriodOption = Option.builder("sessionWritePeriod")
+                .hasArg()
+                .desc("write sessions to the session store in batches every this many milliseconds instead of " +
+                        "at the end of each request, not allowed with sessionIdleTimeout 0").argName("sessionWritePeriod").build();
+
+        Option logAsyncOption = Option.builder("logAsync")
+                .desc("write log events through bounded async queues, a full queue drops TRACE, DEBUG and INFO events " +
+                        "and blocks on the rest").build();
+
+        Option logFileOption = Option.builder("logFile")
+                .hasArg()
+                .desc("log to this rolling file instead of the console when there is no logback configuration file").argName("logFile").build();
+
+        Option logQueueSizeOption = Option.builder("logQueueSize")
+                .hasArg()
+                .desc("capacity of async log queues, 8192 by default").argName("logQueueSize").build();
+
+        Option logDiscardingThresholdOption = Option.builder("logDiscardingThreshold")
+                .hasArg()
+                .desc("remaining async log queue capacity below which TRACE, DEBUG and INFO events are dropped, " +
+                        "0 to keep them, a fifth of the queue by default").argName("logDiscardingThreshold").build();
+
+        Option cdsTrainOption = Option.builder("cdsTrain")
+                .desc("start the server in a child JVM, hit warm-up URLs and write the class list and the CDS archive, then exit").build();
+
+        Option cdsArchiveOption = Option.builder("cdsArchive")
+                .hasArg()
+                .desc("CDS archive written by the training run and used on later starts, app.home/uberjar.jsa by default for training").argName("cdsArchive").build();
+
+        Option cdsWarmupUrlsOption = Option.builder("cdsWarmupUrls")
+                .hasArg()
+                .desc("file with URLs requested by the training run, one per line, paths are resolved against the server").argName("cdsWarmupUrls").build();
+
         Option helpOption = Option.builder("help")
                 .desc("print help information").build();
 
@@ -90,6 +350,68 @@ public class ServerRunner {
         cliOptions.addOption(jettyConfOption);
         cliOptions.addOption(stopPortOption);
         cliOptions.addOption(stopKeyOption);
+        cliOptions.addOption(classLoaderIndexOption);
+        cliOptions.addOption(mappedJarOption);
+        cliOptions.addOption(localTransportOption);
+        cliOptions.addOption(startThreadsOption);
+        cliOptions.addOption(staticCacheSizeOption);
+        cliOptions.addOption(staticCacheMaxFileSizeOption);
+        cliOptions.addOption(staticCacheDirectOption);
+        cliOptions.addOption(explodedCacheOption);
+        cliOptions.addOption(minThreadsOption);
+        cliOptions.addOption(maxThreadsOption);
+        cliOptions.addOption(threadIdleTimeoutOption);
+        cliOptions.addOption(threadQueueSizeOption);
+        cliOptions.addOption(reservedThreadsOption);
+        cliOptions.addOption(virtualThreadsOption);
+        cliOptions.addOption(contextMaxRequestsOption);
+        cliOptions.addOption(contextMaxQueuedOption);
+        cliOptions.addOption(contextQueueTimeoutOption);
+        cliOptions.addOption(lazyContextsOption);
+        cliOptions.addOption(lazyStartTimeoutOption);
+        cliOptions.addOption(contextIdleTimeoutOption);
+        cliOptions.addOption(webSocketMaxTextMessageSizeOption);
+        cliOptions.addOption(webSocketMaxBinaryMessageSizeOption);
+        cliOptions.addOption(webSocketInputBufferSizeOption);
+        cliOptions.addOption(webSocketIdleTimeoutOption);
+        cliOptions.addOption(webSocketAsyncSendTimeoutOption);
+        cliOptions.addOption(webSocketMaxOutgoingFramesOption);
+        cliOptions.addOption(webSocketNoDeflateOption);
+        cliOptions.addOption(http2Option);
+        cliOptions.addOption(http2MaxConcurrentStreamsOption);
+        cliOptions.addOption(http2StreamWindowOption);
+        cliOptions.addOption(http2SessionWindowOption);
+        cliOptions.addOption(bufferPoolBuffersOption);
+        cliOptions.addOption(bufferPoolMinCapacityOption);
+        cliOptions.addOption(bufferPoolFactorOption);
+        cliOptions.addOption(bufferPoolMaxCapacityOption);
+        cliOptions.addOption(bufferPoolMaxQueueLengthOption);
+        cliOptions.addOption(bufferPoolMaxHeapMemoryOption);
+        cliOptions.addOption(bufferPoolMaxDirectMemoryOption);
+        cliOptions.addOption(sslPortOption);
+        cliOptions.addOption(keyStoreOption);
+        cliOptions.addOption(keyStorePasswordOption);
+        cliOptions.addOption(unixSocketOption);
+        cliOptions.addOption(unixSocketPermissionsOption);
+        cliOptions.addOption(unixSocketOnlyOption);
+        cliOptions.addOption(metricsPortOption);
+        cliOptions.addOption(metricsPathOption);
+        cliOptions.addOption(accessLogOption);
+        cliOptions.addOption(accessLogRetainDaysOption);
+        cliOptions.addOption(accessLogCapacityOption);
+        cliOptions.addOption(drainOption);
+        cliOptions.addOption(drainTimeoutOption);
+        cliOptions.addOption(sessionStoreDirOption);
+        cliOptions.addOption(sessionDataSourceOption);
+        cliOptions.addOption(sessionIdleTimeoutOption);
+        cliOptions.addOption(sessionWritePeriodOption);
+        cliOptions.addOption(logAsyncOption);
+        cliOptions.addOption(logFileOption);
+        cliOptions.addOption(logQueueSizeOption);
+        cliOptions.addOption(logDiscardingThresholdOption);
+        cliOptions.addOption(cdsTrainOption);
+        cliOptions.addOption(cdsArchiveOption);
+        cliOptions.addOption(cdsWarmupUrlsOption);
 
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
@@ -104,6 +426,33 @@ public class ServerRunner {
         if (cmd.hasOption("help")) {
             printHelp(formatter, cliOptions);
         } else {
+            // logging is configured on first use, which comes later
+            if (cmd.hasOption(logAsyncOption.getOpt())) {
+                System.setProperty(LogbackConfigurator.ASYNC_PROPERTY, "true");
+            }
+            if (cmd.hasOption(logFileOption.getOpt())) {
+                System.setProperty(LogbackConfigurator.FILE_PROPERTY, cmd.getOptionValue(logFileOption.getOpt()));
+            }
+            if (cmd.hasOption(logQueueSizeOption.getOpt())) {
+                try {
+                    System.setProperty(LogbackConfigurator.QUEUE_SIZE_PROPERTY,
+                            Integer.toString(Integer.parseInt(cmd.getOptionValue(logQueueSizeOption.getOpt()))));
+                } catch (NumberFormatException e) {
+                    System.out.println("logQueueSize has to be number");
+                    printHelp(formatter, cliOptions);
+                    return;
+                }
+            }
+            if (cmd.hasOption(logDiscardingThresholdOption.getOpt())) {
+                try {
+                    System.setProperty(LogbackConfigurator.DISCARDING_THRESHOLD_PROPERTY,
+                            Integer.toString(Integer.parseInt(cmd.getOptionValue(logDiscardingThresholdOption.getOpt()))));
+                } catch (NumberFormatException e) {
+                    System.out.println("logDiscardingThreshold has to be number");
+                    printHelp(formatter, cliOptions);
+                    return;
+                }
+            }
             int stopPort = -1;
             if (cmd.hasOption(stopPortOption.getOpt())) {
                 try {
@@ -245,12 +594,442 @@ public class ServerRunner {
                         jettyServer.setJettyConfUrl(jettyConfUrl);
                     }
                 }
+                jettyServer.setClassLoaderIndexEnabled(cmd.hasOption(classLoaderIndexOption.getOpt()));
+                jettyServer.setMappedJarEnabled(cmd.hasOption(mappedJarOption.getOpt()));
+                jettyServer.setLocalTransportEnabled(cmd.hasOption(localTransportOption.getOpt()));
+                if (cmd.hasOption(startThreadsOption.getOpt())) {
+                    try {
+                        jettyServer.setStartThreads(Integer.parseInt(cmd.getOptionValue(startThreadsOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("startThreads has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(staticCacheSizeOption.getOpt())) {
+                    try {
+                        jettyServer.setStaticCacheSize(Long.parseLong(cmd.getOptionValue(staticCacheSizeOption.getOpt())) * 1024 * 1024);
+                    } catch (NumberFormatException e) {
+                        System.out.println("staticCacheSize has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(staticCacheMaxFileSizeOption.getOpt())) {
+                    try {
+                        jettyServer.setStaticCacheMaxFileSize(Integer.parseInt(cmd.getOptionValue(staticCacheMaxFileSizeOption.getOpt())) * 1024);
+                    } catch (NumberFormatException e) {
+                        System.out.println("staticCacheMaxFileSize has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                jettyServer.setStaticCacheDirect(cmd.hasOption(staticCacheDirectOption.getOpt()));
+                jettyServer.setExplodedCacheEnabled(cmd.hasOption(explodedCacheOption.getOpt()));
+                if (cmd.hasOption(minThreadsOption.getOpt())) {
+                    try {
+                        jettyServer.setMinThreads(Integer.parseInt(cmd.getOptionValue(minThreadsOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("minThreads has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(maxThreadsOption.getOpt())) {
+                    try {
+                        jettyServer.setMaxThreads(Integer.parseInt(cmd.getOptionValue(maxThreadsOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("maxThreads has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(threadIdleTimeoutOption.getOpt())) {
+                    try {
+                        jettyServer.setThreadIdleTimeout(Integer.parseInt(cmd.getOptionValue(threadIdleTimeoutOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("threadIdleTimeout has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(threadQueueSizeOption.getOpt())) {
+                    try {
+                        jettyServer.setThreadQueueSize(Integer.parseInt(cmd.getOptionValue(threadQueueSizeOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("threadQueueSize has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(reservedThreadsOption.getOpt())) {
+                    try {
+                        jettyServer.setReservedThreads(Integer.parseInt(cmd.getOptionValue(reservedThreadsOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("reservedThreads has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                jettyServer.setVirtualThreadsEnabled(cmd.hasOption(virtualThreadsOption.getOpt()));
+                if (jettyServer.getMaxThreads() < jettyServer.getMinThreads()) {
+                    System.out.println("maxThreads has to be greater than or equal to minThreads");
+                    printHelp(formatter, cliOptions);
+                    return;
+                }
+                try {
+                    if (cmd.hasOption(contextMaxRequestsOption.getOpt())) {
+                        jettyServer.setContextMaxRequests(parseContextValues(cmd.getOptionValue(contextMaxRequestsOption.getOpt())));
+                    }
+                    if (cmd.hasOption(contextMaxQueuedOption.getOpt())) {
+                        jettyServer.setContextMaxQueued(parseContextValues(cmd.getOptionValue(contextMaxQueuedOption.getOpt())));
+                    }
+                    if (cmd.hasOption(lazyContextsOption.getOpt())) {
+                        jettyServer.setLazyContexts(parseContextNames(cmd.getOptionValue(lazyContextsOption.getOpt())));
+                    }
+                    if (cmd.hasOption(webSocketMaxTextMessageSizeOption.getOpt())) {
+                        parseContextValues(cmd.getOptionValue(webSocketMaxTextMessageSizeOption.getOpt()))
+                                .forEach((name, value) -> jettyServer.getWebSocketSettings(name).setMaxTextMessageSize(value));
+                    }
+                    if (cmd.hasOption(webSocketMaxBinaryMessageSizeOption.getOpt())) {
+                        parseContextValues(cmd.getOptionValue(webSocketMaxBinaryMessageSizeOption.getOpt()))
+                                .forEach((name, value) -> jettyServer.getWebSocketSettings(name).setMaxBinaryMessageSize(value));
+                    }
+                    if (cmd.hasOption(webSocketInputBufferSizeOption.getOpt())) {
+                        parseContextValues(cmd.getOptionValue(webSocketInputBufferSizeOption.getOpt()))
+                                .forEach((name, value) -> jettyServer.getWebSocketSettings(name).setInputBufferSize(value));
+                    }
+                    if (cmd.hasOption(webSocketIdleTimeoutOption.getOpt())) {
+                        parseContextValues(cmd.getOptionValue(webSocketIdleTimeoutOption.getOpt()))
+                                .forEach((name, value) -> jettyServer.getWebSocketSettings(name).setIdleTimeout(value));
+                    }
+                    if (cmd.hasOption(webSocketAsyncSendTimeoutOption.getOpt())) {
+                        parseContextValues(cmd.getOptionValue(webSocketAsyncSendTimeoutOption.getOpt()))
+                                .forEach((name, value) -> jettyServer.getWebSocketSettings(name).setAsyncSendTimeout(value));
+                    }
+                    if (cmd.hasOption(webSocketMaxOutgoingFramesOption.getOpt())) {
+                        parseContextValues(cmd.getOptionValue(webSocketMaxOutgoingFramesOption.getOpt()))
+                                .forEach((name, value) -> jettyServer.getWebSocketSettings(name).setMaxOutgoingFrames(value));
+                    }
+                    if (cmd.hasOption(webSocketNoDeflateOption.getOpt())) {
+                        for (String name : parseContextNames(cmd.getOptionValue(webSocketNoDeflateOption.getOpt()))) {
+                            jettyServer.getWebSocketSettings(name).setDeflateEnabled(false);
+                        }
+                    }
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    printHelp(formatter, cliOptions);
+                    return;
+                }
+                if (cmd.hasOption(contextQueueTimeoutOption.getOpt())) {
+                    try {
+                        jettyServer.setContextQueueTimeout(Integer.parseInt(cmd.getOptionValue(contextQueueTimeoutOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("contextQueueTimeout has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(lazyStartTimeoutOption.getOpt())) {
+                    try {
+                        jettyServer.setLazyStartTimeout(Integer.parseInt(cmd.getOptionValue(lazyStartTimeoutOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("lazyStartTimeout has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(contextIdleTimeoutOption.getOpt())) {
+                    try {
+                        jettyServer.setContextIdleTimeout(Integer.parseInt(cmd.getOptionValue(contextIdleTimeoutOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("contextIdleTimeout has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                jettyServer.setHttp2Enabled(cmd.hasOption(http2Option.getOpt()));
+                if (cmd.hasOption(http2MaxConcurrentStreamsOption.getOpt())) {
+                    try {
+                        jettyServer.setHttp2MaxConcurrentStreams(Integer.parseInt(cmd.getOptionValue(http2MaxConcurrentStreamsOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("http2MaxConcurrentStreams has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(http2StreamWindowOption.getOpt())) {
+                    try {
+                        jettyServer.setHttp2StreamWindow(Integer.parseInt(cmd.getOptionValue(http2StreamWindowOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("http2StreamWindow has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(http2SessionWindowOption.getOpt())) {
+                    try {
+                        jettyServer.setHttp2SessionWindow(Integer.parseInt(cmd.getOptionValue(http2SessionWindowOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("http2SessionWindow has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(bufferPoolBuffersOption.getOpt())) {
+                    String buffers = cmd.getOptionValue(bufferPoolBuffersOption.getOpt());
+                    if (!"heap".equals(buffers) && !"direct".equals(buffers)) {
+                        System.out.println("bufferPoolBuffers has to be heap or direct");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                    jettyServer.setBufferPoolDirect("direct".equals(buffers));
+                }
+                if (cmd.hasOption(bufferPoolMinCapacityOption.getOpt())) {
+                    try {
+                        jettyServer.setBufferPoolMinCapacity(Integer.parseInt(cmd.getOptionValue(bufferPoolMinCapacityOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("bufferPoolMinCapacity has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(bufferPoolFactorOption.getOpt())) {
+                    try {
+                        jettyServer.setBufferPoolFactor(Integer.parseInt(cmd.getOptionValue(bufferPoolFactorOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("bufferPoolFactor has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(bufferPoolMaxCapacityOption.getOpt())) {
+                    try {
+                        jettyServer.setBufferPoolMaxCapacity(Integer.parseInt(cmd.getOptionValue(bufferPoolMaxCapacityOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("bufferPoolMaxCapacity has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(bufferPoolMaxQueueLengthOption.getOpt())) {
+                    try {
+                        jettyServer.setBufferPoolMaxQueueLength(Integer.parseInt(cmd.getOptionValue(bufferPoolMaxQueueLengthOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("bufferPoolMaxQueueLength has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(bufferPoolMaxHeapMemoryOption.getOpt())) {
+                    try {
+                        jettyServer.setBufferPoolMaxHeapMemory(Long.parseLong(cmd.getOptionValue(bufferPoolMaxHeapMemoryOption.getOpt())) * 1024 * 1024);
+                    } catch (NumberFormatException e) {
+                        System.out.println("bufferPoolMaxHeapMemory has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(bufferPoolMaxDirectMemoryOption.getOpt())) {
+                    try {
+                        jettyServer.setBufferPoolMaxDirectMemory(Long.parseLong(cmd.getOptionValue(bufferPoolMaxDirectMemoryOption.getOpt())) * 1024 * 1024);
+                    } catch (NumberFormatException e) {
+                        System.out.println("bufferPoolMaxDirectMemory has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(sslPortOption.getOpt())) {
+                    try {
+                        jettyServer.setSslPort(Integer.parseInt(cmd.getOptionValue(sslPortOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("sslPort has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(keyStoreOption.getOpt())) {
+                    File keyStore = new File(cmd.getOptionValue(keyStoreOption.getOpt()));
+                    if (!keyStore.isFile()) {
+                        System.out.println(format("Key store %s does not exist", keyStore));
+                        return;
+                    }
+                    jettyServer.setKeyStore(keyStore);
+                    jettyServer.setKeyStorePassword(cmd.getOptionValue(keyStorePasswordOption.getOpt()));
+                }
+                if (cmd.hasOption(unixSocketOption.getOpt())) {
+                    jettyServer.setUnixSocket(new File(cmd.getOptionValue(unixSocketOption.getOpt())));
+                    if (cmd.hasOption(unixSocketPermissionsOption.getOpt())) {
+                        try {
+                            jettyServer.setUnixSocketPermissions(PosixFilePermissions.fromString(
+                                    cmd.getOptionValue(unixSocketPermissionsOption.getOpt())));
+                        } catch (IllegalArgumentException e) {
+                            System.out.println("unixSocketPermissions has to be like rw-rw----");
+                            printHelp(formatter, cliOptions);
+                            return;
+                        }
+                    }
+                    jettyServer.setUnixSocketOnly(cmd.hasOption(unixSocketOnlyOption.getOpt()));
+                }
+                if (cmd.hasOption(metricsPortOption.getOpt())) {
+                    try {
+                        jettyServer.setMetricsPort(Integer.parseInt(cmd.getOptionValue(metricsPortOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("metricsPort has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(metricsPathOption.getOpt())) {
+                    String metricsPath = cmd.getOptionValue(metricsPathOption.getOpt());
+                    jettyServer.setMetricsPath(metricsPath.startsWith(PATH_DELIMITER) ? metricsPath : PATH_DELIMITER + metricsPath);
+                }
+                if (cmd.hasOption(accessLogOption.getOpt())) {
+                    jettyServer.setAccessLog(cmd.getOptionValue(accessLogOption.getOpt()));
+                }
+                if (cmd.hasOption(accessLogRetainDaysOption.getOpt())) {
+                    try {
+                        jettyServer.setAccessLogRetainDays(Integer.parseInt(cmd.getOptionValue(accessLogRetainDaysOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("accessLogRetainDays has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(accessLogCapacityOption.getOpt())) {
+                    try {
+                        jettyServer.setAccessLogCapacity(Integer.parseInt(cmd.getOptionValue(accessLogCapacityOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("accessLogCapacity has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(drainOption.getOpt())) {
+                    jettyServer.setDrainEnabled(true);
+                }
+                if (cmd.hasOption(drainTimeoutOption.getOpt())) {
+                    try {
+                        jettyServer.setDrainTimeout(Integer.parseInt(cmd.getOptionValue(drainTimeoutOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("drainTimeout has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(sessionStoreDirOption.getOpt())) {
+                    jettyServer.setSessionStoreDir(new File(cmd.getOptionValue(sessionStoreDirOption.getOpt())).getAbsoluteFile());
+                }
+                if (cmd.hasOption(sessionDataSourceOption.getOpt())) {
+                    jettyServer.setSessionDataSource(cmd.getOptionValue(sessionDataSourceOption.getOpt()));
+                }
+                if (cmd.hasOption(sessionIdleTimeoutOption.getOpt())) {
+                    try {
+                        jettyServer.setSessionIdleTimeout(Integer.parseInt(cmd.getOptionValue(sessionIdleTimeoutOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("sessionIdleTimeout has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if (cmd.hasOption(sessionWritePeriodOption.getOpt())) {
+                    try {
+                        jettyServer.setSessionWritePeriod(Integer.parseInt(cmd.getOptionValue(sessionWritePeriodOption.getOpt())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("sessionWritePeriod has to be number");
+                        printHelp(formatter, cliOptions);
+                        return;
+                    }
+                }
+                if ((cmd.hasOption(sessionIdleTimeoutOption.getOpt()) || cmd.hasOption(sessionWritePeriodOption.getOpt()))
+                        && jettyServer.getSessionStoreDir() == null && jettyServer.getSessionDataSource() == null) {
+                    System.out.println("sessionIdleTimeout and sessionWritePeriod require sessionStoreDir or sessionDataSource");
+                    printHelp(formatter, cliOptions);
+                    return;
+                }
+                if (jettyServer.getSessionIdleTimeout() == 0 && jettyServer.getSessionWritePeriod() > 0) {
+                    // other nodes would read sessions that are not written yet
+                    System.out.println("sessionWritePeriod can't be used with sessionIdleTimeout 0");
+                    printHelp(formatter, cliOptions);
+                    return;
+                }
+                if (cmd.hasOption(cdsArchiveOption.getOpt())) {
+                    jettyServer.setCdsArchive(new File(cmd.getOptionValue(cdsArchiveOption.getOpt())));
+                }
+                if (cmd.hasOption(cdsWarmupUrlsOption.getOpt())) {
+                    File warmupUrls = new File(cmd.getOptionValue(cdsWarmupUrlsOption.getOpt()));
+                    if (!warmupUrls.isFile()) {
+                        System.out.println(format("Warm-up URL list %s does not exist", warmupUrls));
+                        return;
+                    }
+                    jettyServer.setCdsWarmupUrls(warmupUrls);
+                }
+                if (cmd.hasOption(cdsTrainOption.getOpt())) {
+                    if (jettyServer.getCdsArchive() == null) {
+                        String appHome = System.getProperty("app.home");
+                        jettyServer.setCdsArchive(new File(appHome == null || appHome.isEmpty() ? System.getProperty("user.dir") : appHome,
+                                ClassDataSharing.DEFAULT_ARCHIVE_NAME));
+                    }
+                    if (!ClassDataSharing.isTrainingProcess()) {
+                        try {
+                            int exitCode = ClassDataSharing.train(args, jettyServer.getCdsArchive());
+                            if (exitCode != 0) {
+                                System.out.println(format("CDS training run failed with exit code %d", exitCode));
+                                System.exit(exitCode);
+                            }
+                        } catch (IOException | InterruptedException e) {
+                            System.out.println(format("Unable to start CDS training run: %s", e));
+                        }
+                        return;
+                    }
+                    jettyServer.setCdsTraining(true);
+                }
+
                 System.out.println(format("Starting Jetty server on port: %s and contextPath: %s", jettyServer.getPort(), jettyServer.getContextPath()));
                 jettyServer.start();
             }
         }
     }
 
+    /**
+     * Parses values given per application context, e.g. {@code core=100,web=50}.
+     *
+     * @return values by lower case context name
+     */
+    protected Map<String, Integer> parseContextValues(String value) {
+        Map<String, Integer> values = new HashMap<>();
+        for (String pair : value.split(",")) {
+            String[] parts = pair.split("=");
+            String contextName = parts[0].trim().toLowerCase();
+            if (parts.length != 2 || !CONTEXT_NAMES.contains(contextName)) {
+                throw new IllegalArgumentException(format("%s has to be in the form core=n,web=n,portal=n,front=n", value));
+            }
+            try {
+                values.put(contextName, Integer.parseInt(parts[1].trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(format("%s value of %s has to be number", contextName, value));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Parses a list of application contexts, e.g. {@code portal,front}.
+     *
+     * @return lower case context names
+     */
+    protected Set<String> parseContextNames(String value) {
+        Set<String> names = new HashSet<>();
+        for (String name : value.split(",")) {
+            String contextName = name.trim().toLowerCase();
+            if (!CONTEXT_NAMES.contains(contextName)) {
+                throw new IllegalArgumentException(format("%s has to be a list of core, web, portal and front", value));
+            }
+            names.add(contextName);
+        }
+        return names;
+    }
+
     protected void printHelp(HelpFormatter formatter, Options cliOptions) {
         String jarName = getJarName();
         formatter.printHelp(String.format("java -jar %s", jarName == null ? "jar-file" : jarName), cliOptions);
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.util.component.LifeCycle;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.lang.String.format;
+
+/**
+ * Wall and CPU time of server startup phases and the number of classes loaded by each application class loader.
+ */
+public class StartupReport implements StartupReportMBean {
+    public static final String OBJECT_NAME = "com.haulmont.uberjar:type=StartupReport";
+    public static final String REPORT_FILE_NAME = "startup-report.json";
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final long createdNanos = System.nanoTime();
+    private final List<Phase> phases = new CopyOnWriteArrayList<>();
+    private final List<UberJarURLClassLoader> classLoaders = new CopyOnWriteArrayList<>();
+    private final Map<LifeCycle, Timer> lifeCycleTimers = new ConcurrentHashMap<>();
+    private volatile long startupTime;
+
+    public Timer startTimer(String phase) {
+        return new Timer(phase);
+    }
+
+    /**
+     * Records the time between starting and started events of the given component as a phase.
+     */
+    public void watch(LifeCycle lifeCycle, String phase) {
+        lifeCycle.addLifeCycleListener(new LifeCycle.Listener() {
+            @Override
+            public void lifeCycleStarting(LifeCycle event) {
+                lifeCycleTimers.put(event, startTimer(phase));
+            }
+
+            @Override
+            public void lifeCycleStarted(LifeCycle event) {
+                stopTimer(event);
+            }
+
+            @Override
+            public void lifeCycleFailure(LifeCycle event, Throwable cause) {
+                stopTimer(event);
+            }
+        });
+    }
+
+    public void addClassLoader(UberJarURLClassLoader classLoader) {
+        classLoaders.add(classLoader);
+    }
+
+    public void removeClassLoader(UberJarURLClassLoader classLoader) {
+        classLoaders.remove(classLoader);
+    }
+
+    /**
+     * Completes the report: prints the summary, writes it to the app home and registers it in JMX.
+     */
+    public void finish() {
+        startupTime = ManagementFactory.getRuntimeMXBean().getUptime();
+        System.out.println(getSummary());
+        writeJson();
+        registerMBean();
+    }
+
+    @Override
+    public long getStartupTime() {
+        return startupTime;
+    }
+
+    @Override
+    public String[] getPhases() {
+        return getSortedPhases().stream().map(Phase::toString).toArray(String[]::new);
+    }
+
+    @Override
+    public String[] getClassLoaders() {
+        return classLoaders.stream()
+                .map(classLoader -> format("%s: %d classes", classLoader.getName(), classLoader.getLoadedClassCount()))
+                .toArray(String[]::new);
+    }
+
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(format("Server started in %,d ms since JVM start", startupTime));
+        for (Phase phase : getSortedPhases()) {
+            summary.append(format("%n  %s", phase));
+        }
+        for (String classLoader : getClassLoaders()) {
+            summary.append(format("%n  Loaded by %s", classLoader));
+        }
+        return summary.toString();
+    }
+
+    @Override
+    public String getJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"startupTimeMillis\": ").append(startupTime).append(",\n  \"phases\": [");
+        List<Phase> sortedPhases = getSortedPhases();
+        for (int i = 0; i < sortedPhases.size(); i++) {
+            Phase phase = sortedPhases.get(i);
+            json.append(i > 0 ? ",\n" : "\n")
+                    .append("    {\"name\": ").append(quote(phase.name))
+                    .append(", \"thread\": ").append(quote(phase.thread))
+                    .append(", \"startMillis\": ").append(phase.startNanos / 1000000)
+                    .append(", \"wallMillis\": ").append(phase.wallNanos / 1000000)
+                    .append(", \"cpuMillis\": ").append(phase.cpuNanos / 1000000).append("}");
+        }
+        json.append("\n  ],\n  \"classLoaders\": [");
+        for (int i = 0; i < classLoaders.size(); i++) {
+            UberJarURLClassLoader classLoader = classLoaders.get(i);
+            json.append(i > 0 ? ",\n" : "\n")
+                    .append("    {\"name\": ").append(quote(classLoader.getName()))
+                    .append(", \"loadedClasses\": ").append(classLoader.getLoadedClassCount()).append("}");
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    protected void writeJson() {
+        String appHome = System.getProperty("app.home");
+        File file = appHome == null || appHome.isEmpty() ? new File(REPORT_FILE_NAME) : new File(appHome, REPORT_FILE_NAME);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(getJson().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.out.println(format("Unable to write startup report to %s: %s", file, e));
+        }
+    }
+
+    protected void registerMBean() {
+        CubaJettyUtils.registerMBean(this, OBJECT_NAME);
+    }
+
+    protected List<Phase> getSortedPhases() {
+        List<Phase> sortedPhases = new ArrayList<>(phases);
+        sortedPhases.sort(Comparator.comparingLong(phase -> phase.startNanos));
+        return sortedPhases;
+    }
+
+    protected void stopTimer(LifeCycle lifeCycle) {
+        Timer timer = lifeCycleTimers.remove(lifeCycle);
+        if (timer != null) {
+            timer.stop();
+        }
+    }
+
+    protected long getCurrentThreadCpuTime() {
+        return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    protected static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    public class Timer {
+        private final String phase;
+        private final long startNanos = System.nanoTime();
+        private final long startCpuNanos = getCurrentThreadCpuTime();
+
+        protected Timer(String phase) {
+            this.phase = phase;
+        }
+
+        /**
+         * Records the phase, has to be called by the thread that started the timer.
+         */
+        public void stop() {
+            phases.add(new Phase(phase, Thread.currentThread().getName(), startNanos - createdNanos,
+                    System.nanoTime() - startNanos, getCurrentThreadCpuTime() - startCpuNanos));
+        }
+    }
+
+    protected static class Phase {
+        private final String name;
+        private final String thread;
+        private final long startNanos;
+        private final long wallNanos;
+        private final long cpuNanos;
+
+        public Phase(String name, String thread, long startNanos, long wallNanos, long cpuNanos) {
+            this.name = name;
+            this.thread = thread;
+            this.startNanos = startNanos;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+        }
+
+        @Override
+        public String toString() {
+            return format("%-48s %,8d ms wall %,8d ms cpu  [%s]", name, wallNanos / 1000000, cpuNanos / 1000000, thread);
+        }
+    }
+}
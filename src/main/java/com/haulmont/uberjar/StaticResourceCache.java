@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Size-bounded LRU cache of static resource content, optionally kept in direct buffers outside of the heap.
+ * The cache is split into segments with own locks and own share of the size limit.
+ */
+public class StaticResourceCache implements StaticResourceCacheMBean {
+    public static final String OBJECT_NAME = "com.haulmont.uberjar:type=StaticResourceCache";
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final long maxSize;
+    private final int maxEntrySize;
+    private final boolean direct;
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public StaticResourceCache(long maxSize, int maxEntrySize, boolean direct) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = (int) Math.min(maxEntrySize, maxSize / SEGMENT_COUNT);
+        this.direct = direct;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(maxSize / SEGMENT_COUNT);
+        }
+    }
+
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public Entry get(String key) {
+        Entry entry = getSegment(key).get(key);
+        if (entry != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * @return cached entry or null if the content is larger than the entry size limit
+     */
+    public Entry put(String key, byte[] content, long lastModified) {
+        if (content.length > maxEntrySize) {
+            return null;
+        }
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(content.length) : ByteBuffer.allocate(content.length);
+        buffer.put(content);
+        buffer.flip();
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        Entry entry = new Entry(buffer.asReadOnlyBuffer(), lastModified,
+                "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(content.length) + "\"");
+        getSegment(key).put(key, entry);
+        return entry;
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.getSize();
+        }
+        return size;
+    }
+
+    @Override
+    public int getEntryCount() {
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.getEntryCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    protected Segment getSegment(String key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+    public static class Entry {
+        private final ByteBuffer content;
+        private final long lastModified;
+        private final String etag;
+
+        public Entry(ByteBuffer content, long lastModified, String etag) {
+            this.content = content;
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+
+        /**
+         * @return read-only view of the content, positioned at its start
+         */
+        public ByteBuffer getContent() {
+            return content.duplicate();
+        }
+
+        public int getLength() {
+            return content.remaining();
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+    }
+
+    protected class Segment {
+        private final long maxSize;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+
+        public Segment(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public synchronized Entry get(String key) {
+            return entries.get(key);
+        }
+
+        public synchronized void put(String key, Entry entry) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                size -= previous.getLength();
+            }
+            size += entry.getLength();
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                Entry eldest = iterator.next().getValue();
+                iterator.remove();
+                size -= eldest.getLength();
+                evictions.increment();
+            }
+        }
+
+        public synchronized long getSize() {
+            return size;
+        }
+
+        public synchronized int getEntryCount() {
+            return entries.size();
+        }
+
+        public synchronized void clear() {
+            entries.clear();
+            size = 0;
+        }
+    }
+}
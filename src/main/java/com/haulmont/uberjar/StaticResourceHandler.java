@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.pathmap.MatchedResource;
+import org.eclipse.jetty.http.pathmap.PathSpec;
+import org.eclipse.jetty.http.pathmap.ServletPathSpec;
+import org.eclipse.jetty.security.ConstraintAware;
+import org.eclipse.jetty.security.ConstraintMapping;
+import org.eclipse.jetty.security.SecurityHandler;
+import org.eclipse.jetty.server.InclusiveByteRange;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.FilterMapping;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.URIUtil;
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.util.security.Constraint;
+import org.eclipse.jetty.webapp.WebAppContext;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves static resources of the wrapped web application from {@link StaticResourceCache}.
+ * <p>
+ * Only GET and HEAD requests for resources handled by the default servlet are served from the cache, and only
+ * if no filter of the application applies to them, since the cache bypasses the filter chain. All other requests,
+ * e.g. {@code /VAADIN/} resources served by the Vaadin servlet, are passed to the application. Clients accepting gzip get
+ * the {@code .gz} sibling of a resource written by {@link PrecompressedAssetsWriter} if there is one.
+ */
+public class StaticResourceHandler extends HandlerWrapper {
+    protected static final String DEFAULT_SERVLET_NAME = "default";
+    // acts only on WebSocket upgrade requests, which are never served from the cache
+    protected static final String WEB_SOCKET_UPGRADE_FILTER = "org.eclipse.jetty.websocket.server.WebSocketUpgradeFilter";
+
+    protected final WebAppContext context;
+    protected final StaticResourceCache cache;
+    protected final Set<String> uncompressedPaths = ConcurrentHashMap.newKeySet();
+    protected volatile boolean constrained;
+    protected volatile boolean defaultServletFiltered;
+    protected volatile List<PathSpec> filterPathSpecs = Collections.emptyList();
+
+    public StaticResourceHandler(WebAppContext context, StaticResourceCache cache) {
+        this.context = context;
+        this.cache = cache;
+        setHandler(context);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        constrained = hasConstraints();
+        initFilterMappings();
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        String path = getPathInContext(target, baseRequest);
+        if (path == null) {
+            super.handle(target, baseRequest, request, response);
+            return;
+        }
+        StaticResourceCache.Entry gzipEntry = PrecompressedAssetsWriter.isCompressible(path) ? getGzipEntry(path) : null;
+        boolean gzip = gzipEntry != null && acceptsGzip(request);
+        StaticResourceCache.Entry entry = gzip ? gzipEntry : getEntry(path);
+        if (entry == null) {
+            super.handle(target, baseRequest, request, response);
+            return;
+        }
+        baseRequest.setHandled(true);
+        if (gzipEntry != null) {
+            response.setHeader(HttpHeader.VARY.asString(), HttpHeader.ACCEPT_ENCODING.asString());
+        }
+        if (gzip) {
+            response.setHeader(HttpHeader.CONTENT_ENCODING.asString(), "gzip");
+        }
+        sendEntry(path, entry, baseRequest, request, response);
+    }
+
+    protected String getPathInContext(String target, Request baseRequest) {
+        if (!context.isAvailable() || baseRequest.getDispatcherType() != DispatcherType.REQUEST
+                || !(HttpMethod.GET.is(baseRequest.getMethod()) || HttpMethod.HEAD.is(baseRequest.getMethod()))
+                || !context.checkContextPath(target)) {
+            return null;
+        }
+        String contextPath = context.getContextPath();
+        String path = URIUtil.SLASH.equals(contextPath) ? target : target.substring(contextPath.length());
+        if (path.isEmpty() || path.endsWith(URIUtil.SLASH) || !path.equals(URIUtil.canonicalPath(path))
+                || StringUtil.startsWithIgnoreCase(path, "/WEB-INF") || StringUtil.startsWithIgnoreCase(path, "/META-INF")
+                || !isStaticPath(path)) {
+            return null;
+        }
+        return path;
+    }
+
+    protected boolean isStaticPath(String path) {
+        if (constrained || defaultServletFiltered) {
+            return false;
+        }
+        ServletHandler servletHandler = context.getServletHandler();
+        if (servletHandler.getServletMapping(URIUtil.SLASH) == null) {
+            return false;
+        }
+        MatchedResource<ServletHolder> match = servletHandler.getMatchedServlet(path);
+        if (match == null || !DEFAULT_SERVLET_NAME.equals(match.getResource().getName())) {
+            return false;
+        }
+        for (PathSpec pathSpec : filterPathSpecs) {
+            if (pathSpec.matched(path) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects filter mappings of requests, so that resources the application filters are not served from the cache.
+     */
+    protected void initFilterMappings() {
+        List<PathSpec> pathSpecs = new ArrayList<>();
+        boolean servletFiltered = false;
+        ServletHandler servletHandler = context.getServletHandler();
+        FilterMapping[] mappings = servletHandler.getFilterMappings();
+        if (mappings != null) {
+            for (FilterMapping mapping : mappings) {
+                FilterHolder filter = servletHandler.getFilter(mapping.getFilterName());
+                if (!mapping.appliesTo(DispatcherType.REQUEST)
+                        || filter != null && WEB_SOCKET_UPGRADE_FILTER.equals(filter.getClassName())) {
+                    continue;
+                }
+                if (mapping.getPathSpecs() != null) {
+                    for (String pathSpec : mapping.getPathSpecs()) {
+                        pathSpecs.add(new ServletPathSpec(pathSpec));
+                    }
+                }
+                if (mapping.getServletNames() != null) {
+                    for (String servletName : mapping.getServletNames()) {
+                        if ("*".equals(servletName) || DEFAULT_SERVLET_NAME.equals(servletName)) {
+                            servletFiltered = true;
+                        }
+                    }
+                }
+            }
+        }
+        filterPathSpecs = pathSpecs;
+        defaultServletFiltered = servletFiltered;
+    }
+
+    /**
+     * @return true if the context has security constraints that may apply to GET requests
+     */
+    protected boolean hasConstraints() {
+        SecurityHandler securityHandler = context.getSecurityHandler();
+        if (!(securityHandler instanceof ConstraintAware)) {
+            return false;
+        }
+        for (ConstraintMapping mapping : ((ConstraintAware) securityHandler).getConstraintMappings()) {
+            Constraint constraint = mapping.getConstraint();
+            boolean restrictive = constraint.getAuthenticate() || constraint.isForbidden()
+                    || constraint.getDataConstraint() > Constraint.DC_NONE;
+            boolean appliesToGet = mapping.getMethod() == null || HttpMethod.GET.is(mapping.getMethod())
+                    || HttpMethod.HEAD.is(mapping.getMethod());
+            if (mapping.getMethodOmissions() != null && Arrays.asList(mapping.getMethodOmissions()).contains(HttpMethod.GET.asString())) {
+                appliesToGet = false;
+            }
+            if (restrictive && appliesToGet) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected StaticResourceCache.Entry getGzipEntry(String path) throws IOException {
+        if (uncompressedPaths.contains(path)) {
+            return null;
+        }
+        String gzipPath = path + PrecompressedAssetsWriter.GZIP_SUFFIX;
+        StaticResourceCache.Entry entry = getEntry(gzipPath);
+        if (entry == null && !exists(gzipPath) && exists(path)) {
+            uncompressedPaths.add(path);
+        }
+        return entry;
+    }
+
+    protected boolean exists(String path) throws IOException {
+        Resource resource = context.getResource(path);
+        return resource != null && resource.exists();
+    }
+
+    protected boolean acceptsGzip(HttpServletRequest request) {
+        Enumeration<String> headers = request.getHeaders(HttpHeader.ACCEPT_ENCODING.asString());
+        while (headers != null && headers.hasMoreElements()) {
+            for (String coding : headers.nextElement().split(",")) {
+                String[] parts = coding.split(";");
+                if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+                    return parts.length < 2 || !parts[1].trim().matches("q\\s*=\\s*0(\\.0*)?");
+                }
+            }
+        }
+        return false;
+    }
+
+    protected StaticResourceCache.Entry getEntry(String path) throws IOException {
+        String key = context.getContextPath() + ':' + path;
+        StaticResourceCache.Entry entry = cache.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        Resource resource = context.getResource(path);
+        if (resource == null || !resource.exists() || resource.isDirectory()
+                || resource.length() < 0 || resource.length() > cache.getMaxEntrySize()) {
+            return null;
+        }
+        byte[] content;
+        try (InputStream in = resource.getInputStream()) {
+            content = IO.readBytes(in);
+        }
+        return cache.put(key, content, resource.lastModified());
+    }
+
+    protected void sendEntry(String path, StaticResourceCache.Entry entry, Request baseRequest,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String mimeType = context.getMimeTypes().getMimeByExtension(path);
+        if (mimeType != null) {
+            response.setContentType(mimeType);
+        }
+        response.setHeader(HttpHeader.ETAG.asString(), entry.getETag());
+        if (entry.getLastModified() > 0) {
+            response.setDateHeader(HttpHeader.LAST_MODIFIED.asString(), entry.getLastModified());
+        }
+        response.setHeader(HttpHeader.ACCEPT_RANGES.asString(), "bytes");
+
+        if (isNotModified(entry, request)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        ByteBuffer content = entry.getContent();
+        Enumeration<String> rangeHeaders = request.getHeaders(HttpHeader.RANGE.asString());
+        if (rangeHeaders != null && rangeHeaders.hasMoreElements() && isRangeApplicable(entry, request)) {
+            List<InclusiveByteRange> ranges = InclusiveByteRange.satisfiableRanges(rangeHeaders, entry.getLength());
+            if (ranges == null || ranges.isEmpty()) {
+                response.setHeader(HttpHeader.CONTENT_RANGE.asString(),
+                        InclusiveByteRange.to416HeaderRangeString(entry.getLength()));
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (ranges.size() == 1) {
+                InclusiveByteRange range = ranges.get(0);
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeader.CONTENT_RANGE.asString(), range.toHeaderRangeString(entry.getLength()));
+                content.position((int) range.getFirst());
+                content.limit((int) range.getLast() + 1);
+            }
+        }
+
+        response.setContentLength(content.remaining());
+        if (!HttpMethod.HEAD.is(request.getMethod())) {
+            baseRequest.getResponse().getHttpOutput().sendContent(content.slice());
+        }
+    }
+
+    protected boolean isNotModified(StaticResourceCache.Entry entry, HttpServletRequest request) {
+        String ifNoneMatch = request.getHeader(HttpHeader.IF_NONE_MATCH.asString());
+        if (ifNoneMatch != null) {
+            for (String etag : ifNoneMatch.split(",")) {
+                etag = etag.trim();
+                if ("*".equals(etag) || entry.getETag().equals(etag) || ("W/" + entry.getETag()).equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = getDateHeader(request, HttpHeader.IF_MODIFIED_SINCE.asString());
+        return ifModifiedSince > 0 && entry.getLastModified() > 0
+                && entry.getLastModified() / 1000 <= ifModifiedSince / 1000;
+    }
+
+    protected boolean isRangeApplicable(StaticResourceCache.Entry entry, HttpServletRequest request) {
+        String ifRange = request.getHeader(HttpHeader.IF_RANGE.asString());
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return entry.getETag().equals(ifRange.trim());
+        }
+        long ifRangeDate = getDateHeader(request, HttpHeader.IF_RANGE.asString());
+        return ifRangeDate > 0 && entry.getLastModified() / 1000 == ifRangeDate / 1000;
+    }
+
+    protected long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static java.lang.String.format;
+
+/**
+ * Listens for stop commands on the stop port instead of Jetty's {@code ShutdownMonitor} when the server is drained
+ * on stop.
+ * <p>
+ * Accepts the protocol of {@code ShutdownMonitor}: a key line and a command line. {@code stop} drains the server
+ * and streams progress lines to the client before the final {@code Stopped}, {@code forcestop} skips draining,
+ * {@code status} replies {@code OK}.
+ */
+public class StopMonitor extends Thread {
+    protected static final int READ_TIMEOUT = 10000;
+
+    protected final ServerSocket serverSocket;
+    protected final String key;
+    protected final GracefulShutdown gracefulShutdown;
+    protected final Runnable forceStop;
+
+    public StopMonitor(int port, String key, GracefulShutdown gracefulShutdown, Runnable forceStop) throws IOException {
+        super("StopMonitor");
+        setDaemon(true);
+        this.serverSocket = new ServerSocket(port, 1, InetAddress.getByName("127.0.0.1"));
+        this.key = key;
+        this.gracefulShutdown = gracefulShutdown;
+        this.forceStop = forceStop;
+    }
+
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                socket.setSoTimeout(READ_TIMEOUT);
+                LineNumberReader reader = new LineNumberReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                if (!key.equals(reader.readLine())) {
+                    System.out.println("Ignoring command with incorrect stop key");
+                    continue;
+                }
+                String command = reader.readLine();
+                OutputStream out = socket.getOutputStream();
+                if ("stop".equalsIgnoreCase(command) || "stopexit".equalsIgnoreCase(command)) {
+                    gracefulShutdown.drainAndStop(message -> {
+                        System.out.println(message);
+                        informClient(out, message);
+                    });
+                    informClient(out, "Stopped");
+                    exit(socket);
+                } else if ("forcestop".equalsIgnoreCase(command)) {
+                    forceStop.run();
+                    informClient(out, "Stopped");
+                    exit(socket);
+                } else if ("status".equalsIgnoreCase(command)) {
+                    informClient(out, "OK");
+                } else {
+                    System.out.println(format("Unknown stop command %s", command));
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.out.println(format("Stop monitor failed to handle a command: %s", e));
+                }
+            }
+        }
+    }
+
+    protected void informClient(OutputStream out, String message) {
+        try {
+            out.write((message + "\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            // the client has gone, stopping goes on
+        }
+    }
+
+    protected void exit(Socket socket) throws IOException {
+        socket.close();
+        serverSocket.close();
+        System.exit(0);
+    }
+}
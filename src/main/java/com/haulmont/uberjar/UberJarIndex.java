@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import static com.haulmont.uberjar.CubaJettyUtils.*;
+
+/**
+ * Layout and class loader entries of an uber jar, written at build time by {@link UberJarIndexWriter}.
+ * <p>
+ * Format: a header line with the number of indexed jar entries and their fingerprint, a {@code layout} line with
+ * the application paths present in the jar, then for each class loader root a {@code root} line followed by its
+ * entry names, each prefixed with a space. An index that doesn't match the jar it is found in is ignored.
+ */
+class UberJarIndex {
+    public static final String INDEX_PATH_IN_JAR = "LIB-INF/uberjar.idx";
+
+    private static final String HEADER = "uberjar-index 2";
+    private static final String JAR_SEPARATOR = "!/";
+    private static final String LAYOUT_PREFIX = "layout";
+    private static final String ROOT_PREFIX = "root ";
+    private static final String ENTRY_PREFIX = " ";
+
+    private static final String[] APP_PATHS_IN_JAR = {CORE_PATH_IN_JAR, WEB_PATH_IN_JAR, PORTAL_PATH_IN_JAR, FRONT_PATH_IN_JAR};
+
+    private static final Map<ClassLoader, Optional<UberJarIndex>> indexes = new WeakHashMap<>();
+
+    private final Set<String> apps = new LinkedHashSet<>();
+    private final Map<String, List<String>> roots = new LinkedHashMap<>();
+    private int jarEntryCount;
+    private long jarFingerprint;
+
+    /**
+     * @return index embedded in the jar served by the given class loader or null if there is none
+     */
+    public static UberJarIndex get(ClassLoader classLoader) {
+        synchronized (indexes) {
+            Optional<UberJarIndex> index = indexes.get(classLoader);
+            if (index == null) {
+                index = Optional.ofNullable(load(classLoader));
+                indexes.put(classLoader, index);
+            }
+            return index.orElse(null);
+        }
+    }
+
+    protected static UberJarIndex load(ClassLoader classLoader) {
+        URL url = classLoader.getResource(INDEX_PATH_IN_JAR);
+        if (url == null) {
+            return null;
+        }
+        try {
+            UberJarIndex index;
+            try (InputStream in = url.openStream()) {
+                index = read(in);
+            }
+            File jarFile = getJarFile(url);
+            if (jarFile == null) {
+                System.out.println(String.format("Unable to check %s against its jar, probing jar instead", url));
+                return null;
+            }
+            if (!index.matches(MappedJarFile.open(jarFile))) {
+                System.out.println(String.format("%s does not match %s, probing jar instead. " +
+                        "Run uberJarIndex again after the jar is rebuilt", INDEX_PATH_IN_JAR, jarFile.getName()));
+                return null;
+            }
+            return index;
+        } catch (IOException e) {
+            System.out.println(String.format("Unable to read %s, probing jar instead: %s", INDEX_PATH_IN_JAR, e));
+            return null;
+        }
+    }
+
+    /**
+     * @return jar containing the resource or null if it is not in a local jar, e.g. in an exploded copy
+     */
+    protected static File getJarFile(URL url) throws IOException {
+        if (MappedJarURLs.isMappedURL(url)) {
+            return MappedJarURLs.getJarFile(url);
+        }
+        if ("jar".equals(url.getProtocol())) {
+            String file = url.getFile();
+            int separator = file.indexOf(JAR_SEPARATOR);
+            URL jarUrl = separator > 0 ? new URL(file.substring(0, separator)) : null;
+            if (jarUrl != null && "file".equals(jarUrl.getProtocol())) {
+                return ClassLoaderIndex.toFile(jarUrl);
+            }
+        }
+        return null;
+    }
+
+    public static UberJarIndex read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String header = reader.readLine();
+        if (header == null || !header.startsWith(HEADER + " ")) {
+            throw new IOException("Unsupported index format");
+        }
+        UberJarIndex index = new UberJarIndex();
+        StringTokenizer headerTokenizer = new StringTokenizer(header.substring(HEADER.length()));
+        try {
+            index.jarEntryCount = Integer.parseInt(headerTokenizer.nextToken());
+            index.jarFingerprint = Long.parseUnsignedLong(headerTokenizer.nextToken(), 16);
+        } catch (NoSuchElementException | NumberFormatException e) {
+            throw new IOException("Invalid index header: " + header);
+        }
+        List<String> entries = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(ENTRY_PREFIX)) {
+                if (entries == null) {
+                    throw new IOException("Entry outside of root: " + line);
+                }
+                entries.add(line.substring(ENTRY_PREFIX.length()));
+            } else if (line.startsWith(ROOT_PREFIX)) {
+                entries = new ArrayList<>();
+                index.roots.put(line.substring(ROOT_PREFIX.length()), entries);
+            } else if (line.startsWith(LAYOUT_PREFIX)) {
+                StringTokenizer tokenizer = new StringTokenizer(line.substring(LAYOUT_PREFIX.length()));
+                while (tokenizer.hasMoreTokens()) {
+                    index.apps.add(tokenizer.nextToken());
+                }
+            }
+        }
+        return index;
+    }
+
+    public static UberJarIndex scan(File jarFile) throws IOException {
+        UberJarIndex index = new UberJarIndex();
+        MappedJarFile mappedJarFile = MappedJarFile.open(jarFile);
+        index.jarEntryCount = countEntries(mappedJarFile);
+        index.jarFingerprint = fingerprint(mappedJarFile);
+        List<String> names = new ArrayList<>();
+        for (String name : mappedJarFile.getNames()) {
+            if (!INDEX_PATH_IN_JAR.equals(name)) {
+                names.add(name);
+            }
+        }
+        for (String appPath : APP_PATHS_IN_JAR) {
+            String prefix = appPath + PATH_DELIMITER;
+            if (names.stream().anyMatch(name -> name.startsWith(prefix))) {
+                index.apps.add(appPath);
+            }
+        }
+        index.addRoot(SHARED_CLASS_PATH_IN_JAR + PATH_DELIMITER, names);
+        for (String appPath : index.apps) {
+            index.addRoot(getAppClassesPath(appPath) + PATH_DELIMITER, names);
+        }
+        return index;
+    }
+
+    public void write(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write(HEADER);
+        writer.write(String.format(" %d %x", jarEntryCount, jarFingerprint));
+        writer.write('\n');
+        writer.write(LAYOUT_PREFIX);
+        for (String app : apps) {
+            writer.write(' ');
+            writer.write(app);
+        }
+        writer.write('\n');
+        for (Map.Entry<String, List<String>> root : roots.entrySet()) {
+            writer.write(ROOT_PREFIX);
+            writer.write(root.getKey());
+            writer.write('\n');
+            for (String entry : root.getValue()) {
+                writer.write(ENTRY_PREFIX);
+                writer.write(entry);
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return whether the index has been written for the jar as it is now
+     */
+    public boolean matches(MappedJarFile jarFile) {
+        return countEntries(jarFile) == jarEntryCount && fingerprint(jarFile) == jarFingerprint;
+    }
+
+    protected static boolean isFingerprinted(String name) {
+        // directory entries may be added when the index is written into the jar
+        return !INDEX_PATH_IN_JAR.equals(name) && !name.endsWith(PATH_DELIMITER);
+    }
+
+    protected static int countEntries(MappedJarFile jarFile) {
+        int count = 0;
+        for (String name : jarFile.getNames()) {
+            if (isFingerprinted(name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return sum of CRCs of entry names, sizes and data CRCs, which doesn't depend on the order of entries
+     */
+    protected static long fingerprint(MappedJarFile jarFile) {
+        CRC32 crc = new CRC32();
+        ByteBuffer sizeAndCrc = ByteBuffer.allocate(8);
+        long fingerprint = 0;
+        String[] names = jarFile.getNames();
+        for (int i = 0; i < names.length; i++) {
+            if (!isFingerprinted(names[i])) {
+                continue;
+            }
+            crc.reset();
+            crc.update(names[i].getBytes(StandardCharsets.UTF_8));
+            sizeAndCrc.clear();
+            sizeAndCrc.putInt(jarFile.getSize(i)).putInt(jarFile.getCrc(i));
+            crc.update(sizeAndCrc.array());
+            fingerprint += crc.getValue();
+        }
+        return fingerprint;
+    }
+
+    public boolean hasApp(String appPathInJar) {
+        return apps.contains(appPathInJar);
+    }
+
+    /**
+     * @param root path in jar ending with a delimiter, e.g. {@code LIB-INF/shared/}
+     * @return entry names relative to the root or null if the root is not indexed
+     */
+    public List<String> getEntries(String root) {
+        return roots.get(root);
+    }
+
+    public int getEntryCount() {
+        return roots.values().stream().mapToInt(List::size).sum();
+    }
+
+    protected void addRoot(String root, List<String> names) {
+        List<String> entries = new ArrayList<>();
+        for (String name : names) {
+            if (name.startsWith(root) && name.length() > root.length()) {
+                entries.add(name.substring(root.length()));
+            }
+        }
+        roots.put(root, entries);
+    }
+}
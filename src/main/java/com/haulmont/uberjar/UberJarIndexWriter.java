@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static java.lang.String.format;
+
+/**
+ * Writes {@link UberJarIndex#INDEX_PATH_IN_JAR} into an assembled uber jar, or into a separate file
+ * when the index is packed into the jar by the build itself.
+ */
+public class UberJarIndexWriter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: UberJarIndexWriter <uber jar> [index file]");
+            System.exit(1);
+        }
+        File jarFile = new File(args[0]);
+        if (!jarFile.isFile()) {
+            System.out.println(format("Uber jar %s does not exist", jarFile));
+            System.exit(1);
+        }
+        UberJarIndex index = UberJarIndex.scan(jarFile);
+        if (args.length > 1) {
+            try (OutputStream out = new FileOutputStream(args[1])) {
+                index.write(out);
+            }
+        } else {
+            writeToJar(jarFile, index);
+        }
+        System.out.println(format("Indexed %d entries of %s", index.getEntryCount(), jarFile.getName()));
+    }
+
+    protected static void writeToJar(File jarFile, UberJarIndex index) throws IOException {
+        URI uri = URI.create("jar:" + jarFile.toURI());
+        try (FileSystem fileSystem = FileSystems.newFileSystem(uri, Collections.emptyMap())) {
+            Path indexPath = fileSystem.getPath(UberJarIndex.INDEX_PATH_IN_JAR);
+            Files.createDirectories(indexPath.getParent());
+            try (OutputStream out = Files.newOutputStream(indexPath)) {
+                index.write(out);
+            }
+        }
+    }
+}
@@ -16,23 +16,233 @@
 
 package com.haulmont.uberjar;
 
+import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class UberJarURLClassLoader extends URLClassLoader {
+    static {
+        // lock per class name instead of the loader monitor, see ClassLoader.getClassLoadingLock
+        ClassLoader.registerAsParallelCapable();
+    }
+
     private final String name;
+    private final ClassLoaderIndex index;
+    private final MappedRoot[] mappedRoots;
+    private final AtomicInteger loadedClassCount = new AtomicInteger();
+    private volatile Queue<String> loadedClassNames;
 
     public UberJarURLClassLoader(String name, URL[] urls, ClassLoader parent) {
+        this(name, urls, parent, false, null);
+    }
+
+    /**
+     * @param indexed      whether class and resource lookups are answered from an index of entries
+     * @param uberJarIndex build-time index of the uber jar, may be null
+     */
+    public UberJarURLClassLoader(String name, URL[] urls, ClassLoader parent, boolean indexed, UberJarIndex uberJarIndex) {
         super(urls, parent);
         this.name = name;
+        this.index = indexed ? buildIndex(urls, uberJarIndex) : null;
+        this.mappedRoots = openMappedRoots(urls);
     }
 
     public String getName() {
         return name;
     }
 
+    public boolean isIndexed() {
+        return index != null;
+    }
+
+    /**
+     * @return number of classes defined by this class loader
+     */
+    public int getLoadedClassCount() {
+        return loadedClassCount.get();
+    }
+
+    /**
+     * Starts recording names of classes defined by this class loader, e.g. to write a class list.
+     */
+    public void recordLoadedClasses() {
+        loadedClassNames = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * @return names of classes defined since recording has been started
+     */
+    public List<String> getLoadedClassNames() {
+        Queue<String> names = loadedClassNames;
+        return names != null ? new ArrayList<>(names) : Collections.emptyList();
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String path = name.replace('.', '/').concat(".class");
+        // misses are not remembered, classes defined later, e.g. generated proxies, are found by findLoadedClass
+        int position = index != null ? index.findResource(path) : 0;
+        if (position < 0) {
+            throw new ClassNotFoundException(name);
+        }
+        if (mappedRoots != null) {
+            for (int i = position; i < mappedRoots.length; i++) {
+                MappedRoot root = mappedRoots[i];
+                int entry = root.jarFile.getEntry(root.prefix + path);
+                if (entry >= 0) {
+                    Class<?> loadedClass;
+                    try {
+                        loadedClass = defineMappedClass(name, root, entry);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                    classDefined(name);
+                    return loadedClass;
+                }
+            }
+            throw new ClassNotFoundException(name);
+        }
+        Class<?> loadedClass = super.findClass(name);
+        classDefined(name);
+        return loadedClass;
+    }
+
+    protected void classDefined(String name) {
+        loadedClassCount.incrementAndGet();
+        Queue<String> names = loadedClassNames;
+        if (names != null) {
+            names.add(name);
+        }
+    }
+
+    @Override
+    public URL findResource(String name) {
+        int position = index != null ? index.findResource(name) : 0;
+        if (position < 0) {
+            return null;
+        }
+        if (mappedRoots != null) {
+            for (int i = position; i < mappedRoots.length; i++) {
+                URL url = mappedRoots[i].findResource(name);
+                if (url != null) {
+                    return url;
+                }
+            }
+            return null;
+        }
+        return super.findResource(name);
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        int position = index != null ? index.findResource(name) : 0;
+        if (position < 0) {
+            return Collections.emptyEnumeration();
+        }
+        if (mappedRoots != null) {
+            List<URL> urls = new ArrayList<>();
+            for (int i = position; i < mappedRoots.length; i++) {
+                URL url = mappedRoots[i].findResource(name);
+                if (url != null) {
+                    urls.add(url);
+                }
+            }
+            return Collections.enumeration(urls);
+        }
+        return super.findResources(name);
+    }
+
     @Override
     public String toString() {
         return name + " " + super.toString();
     }
-}
\ No newline at end of file
+
+    protected Class<?> defineMappedClass(String name, MappedRoot root, int entry) throws IOException {
+        int lastDot = name.lastIndexOf('.');
+        if (lastDot > 0) {
+            String packageName = name.substring(0, lastDot);
+            if (getPackage(packageName) == null) {
+                try {
+                    definePackage(packageName, null, null, null, null, null, null, null);
+                } catch (IllegalArgumentException e) {
+                    // defined concurrently by another thread
+                }
+            }
+        }
+        ByteBuffer storedData = root.jarFile.getStoredData(entry);
+        if (storedData != null) {
+            return defineClass(name, storedData, root.codeSource);
+        }
+        byte[] bytes = root.jarFile.getBytes(entry);
+        return defineClass(name, bytes, 0, bytes.length, root.codeSource);
+    }
+
+    /**
+     * @return roots of URLs served by mapped jars or null if some of the URLs are not
+     */
+    protected MappedRoot[] openMappedRoots(URL[] urls) {
+        if (urls.length == 0) {
+            return null;
+        }
+        MappedRoot[] roots = new MappedRoot[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            if (!MappedJarURLs.isMappedURL(urls[i])) {
+                return null;
+            }
+            try {
+                roots[i] = new MappedRoot(urls[i]);
+            } catch (IOException e) {
+                System.out.println(String.format("Unable to map %s of class loader %s, using URL lookup: %s", urls[i], name, e));
+                return null;
+            }
+        }
+        return roots;
+    }
+
+    protected ClassLoaderIndex buildIndex(URL[] urls, UberJarIndex uberJarIndex) {
+        try {
+            ClassLoaderIndex index = ClassLoaderIndex.build(urls, uberJarIndex);
+            if (index == null) {
+                System.out.println(String.format("Class loader %s can't be indexed, using plain lookup", name));
+            }
+            return index;
+        } catch (IOException e) {
+            System.out.println(String.format("Unable to build index of class loader %s, using plain lookup: %s", name, e));
+            return null;
+        }
+    }
+
+    protected static class MappedRoot {
+        private final MappedJarFile jarFile;
+        private final String prefix;
+        private final CodeSource codeSource;
+
+        public MappedRoot(URL url) throws IOException {
+            this.jarFile = MappedJarFile.open(MappedJarURLs.getJarFile(url));
+            this.prefix = MappedJarURLs.getEntryName(url);
+            this.codeSource = new CodeSource(url, (CodeSigner[]) null);
+        }
+
+        public URL findResource(String name) {
+            String entryName = prefix + name;
+            if (jarFile.getEntry(entryName) < 0 && !jarFile.isDirectory(entryName)) {
+                return null;
+            }
+            try {
+                return MappedJarURLs.create(jarFile.getFile(), entryName);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.ChannelEndPoint;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ManagedSelector;
+import org.eclipse.jetty.io.SelectorManager;
+import org.eclipse.jetty.io.SocketChannelEndPoint;
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Server;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+
+import static java.lang.String.format;
+
+/**
+ * Connector listening on a Unix domain socket with the JDK support of Java 16 and newer.
+ * <p>
+ * The JDK API is called reflectively, so the class loads on Java 8 and {@link #isSupported()} tells whether it works.
+ * A stale socket file left by a killed server is replaced on start, the socket file is deleted on stop.
+ */
+public class UnixDomainSocketConnector extends AbstractConnector {
+    private static final Method OPEN_METHOD;
+    private static final Method ADDRESS_METHOD;
+    private static final ProtocolFamily UNIX_FAMILY;
+
+    static {
+        Method openMethod = null;
+        Method addressMethod = null;
+        ProtocolFamily unixFamily = null;
+        try {
+            unixFamily = StandardProtocolFamily.valueOf("UNIX");
+            openMethod = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            addressMethod = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+        } catch (IllegalArgumentException | ReflectiveOperationException e) {
+            // Java 15 or older
+        }
+        OPEN_METHOD = openMethod;
+        ADDRESS_METHOD = addressMethod;
+        UNIX_FAMILY = unixFamily;
+    }
+
+    protected final Path path;
+    protected final SelectorManager manager;
+    protected Set<PosixFilePermission> permissions;
+    protected int acceptQueueSize;
+    protected volatile ServerSocketChannel acceptChannel;
+
+    public UnixDomainSocketConnector(Server server, Path path, ConnectionFactory... factories) {
+        this(server, path, -1, -1, factories);
+    }
+
+    public UnixDomainSocketConnector(Server server, Path path, int acceptors, int selectors, ConnectionFactory... factories) {
+        super(server, null, null, (ByteBufferPool) null, acceptors, factories);
+        this.path = path.toAbsolutePath();
+        this.manager = new UnixSocketSelectorManager(selectors > 0 ? selectors : 1);
+        addBean(manager, true);
+        setName("unix:" + this.path);
+    }
+
+    public static boolean isSupported() {
+        return OPEN_METHOD != null && ADDRESS_METHOD != null;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Set<PosixFilePermission> getPermissions() {
+        return permissions;
+    }
+
+    /**
+     * @param permissions permissions of the socket file, the file is created with the process umask if null
+     */
+    public void setPermissions(Set<PosixFilePermission> permissions) {
+        this.permissions = permissions;
+    }
+
+    public int getAcceptQueueSize() {
+        return acceptQueueSize;
+    }
+
+    public void setAcceptQueueSize(int acceptQueueSize) {
+        this.acceptQueueSize = acceptQueueSize;
+    }
+
+    @Override
+    public Object getTransport() {
+        return acceptChannel;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        open();
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        close();
+    }
+
+    protected void open() throws IOException {
+        if (!isSupported()) {
+            throw new IOException("Unix domain sockets require Java 16 or newer");
+        }
+        deleteStaleSocket(path);
+        ServerSocketChannel channel;
+        try {
+            channel = (ServerSocketChannel) OPEN_METHOD.invoke(null, UNIX_FAMILY);
+            channel.bind((SocketAddress) ADDRESS_METHOD.invoke(null, path), acceptQueueSize);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException(format("Failed to bind to %s", path), e);
+        }
+        channel.configureBlocking(true);
+        acceptChannel = channel;
+        setPermissions(path, permissions);
+    }
+
+    protected void close() throws IOException {
+        ServerSocketChannel channel = acceptChannel;
+        acceptChannel = null;
+        if (channel != null) {
+            channel.close();
+        }
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    protected void accept(int acceptorID) throws IOException {
+        ServerSocketChannel channel = acceptChannel;
+        if (channel != null && channel.isOpen()) {
+            SocketChannel socketChannel = channel.accept();
+            socketChannel.configureBlocking(false);
+            manager.accept(socketChannel);
+        }
+    }
+
+    /**
+     * Removes a socket file left by a previous run, any other kind of file at the path is kept.
+     */
+    public static void deleteStaleSocket(Path path) throws IOException {
+        if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!attributes.isOther()) {
+                throw new IOException(format("%s exists and is not a socket", path));
+            }
+            Files.delete(path);
+        }
+    }
+
+    public static void setPermissions(Path path, Set<PosixFilePermission> permissions) throws IOException {
+        if (permissions != null) {
+            Files.setPosixFilePermissions(path, permissions);
+        }
+    }
+
+    protected class UnixSocketSelectorManager extends SelectorManager {
+
+        protected UnixSocketSelectorManager(int selectors) {
+            super(UnixDomainSocketConnector.this.getExecutor(), UnixDomainSocketConnector.this.getScheduler(), selectors);
+        }
+
+        @Override
+        protected EndPoint newEndPoint(SelectableChannel channel, ManagedSelector selector, SelectionKey key) {
+            UnixSocketEndPoint endPoint = new UnixSocketEndPoint((SocketChannel) channel, selector, key);
+            endPoint.setIdleTimeout(getIdleTimeout());
+            return endPoint;
+        }
+
+        @Override
+        public Connection newConnection(SelectableChannel channel, EndPoint endPoint, Object attachment) {
+            return getDefaultConnectionFactory().newConnection(UnixDomainSocketConnector.this, endPoint);
+        }
+
+        @Override
+        protected void endPointOpened(EndPoint endPoint) {
+            super.endPointOpened(endPoint);
+            onEndPointOpened(endPoint);
+        }
+
+        @Override
+        protected void endPointClosed(EndPoint endPoint) {
+            onEndPointClosed(endPoint);
+            super.endPointClosed(endPoint);
+        }
+    }
+
+    /**
+     * Unix domain socket channels have no {@link java.net.Socket} and no inet addresses.
+     */
+    protected class UnixSocketEndPoint extends SocketChannelEndPoint {
+
+        protected UnixSocketEndPoint(SocketChannel channel, ManagedSelector selector, SelectionKey key) {
+            super(channel, selector, key, UnixDomainSocketConnector.this.getScheduler());
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        protected void doShutdownOutput() {
+            try {
+                getChannel().shutdownOutput();
+            } catch (IOException e) {
+                // the connection is closed anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.util.thread.Invocable;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread pool running blocking request handling tasks on virtual threads of Java 21+,
+ * while selectors, acceptors and non-blocking tasks keep using pooled platform threads.
+ * <p>
+ * Reserved threads are disabled, so that Jetty hands blocking tasks to {@link #execute(Runnable)}
+ * instead of running them on the thread that has produced them.
+ */
+public class VirtualThreadPool extends QueuedThreadPool {
+    private static final ThreadFactory virtualThreadFactory = createVirtualThreadFactory();
+
+    public VirtualThreadPool(int maxThreads, int minThreads, int idleTimeout, BlockingQueue<Runnable> queue) {
+        super(maxThreads, minThreads, idleTimeout, 0, queue, null);
+        setName("qtp-virtual");
+    }
+
+    /**
+     * @return whether the running JVM supports virtual threads
+     */
+    public static boolean isSupported() {
+        return virtualThreadFactory != null;
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        if (virtualThreadFactory != null && isBlockingTask(job)) {
+            virtualThreadFactory.newThread(job).start();
+        } else {
+            super.execute(job);
+        }
+    }
+
+    @Override
+    public void setReservedThreads(int reservedThreads) {
+        super.setReservedThreads(0);
+    }
+
+    /**
+     * @return true for tasks handling requests, which may block in the application
+     */
+    protected boolean isBlockingTask(Runnable job) {
+        return job instanceof HttpChannel
+                || job instanceof Invocable && Invocable.getInvocationType(job) == Invocable.InvocationType.BLOCKING;
+    }
+
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method nameMethod = builderClass.getMethod("name", String.class, long.class);
+            builder = nameMethod.invoke(builder, "virtual-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
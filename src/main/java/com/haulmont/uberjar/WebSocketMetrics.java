@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.io.AbstractEndPoint;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.websocket.common.LogicalConnection;
+import org.eclipse.jetty.websocket.common.WebSocketSession;
+import org.eclipse.jetty.websocket.common.WebSocketSessionListener;
+import org.eclipse.jetty.websocket.common.io.AbstractWebSocketConnection;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts WebSocket sessions and their traffic in an application context. Totals include closed sessions,
+ * so they keep growing across restarts of a lazy context.
+ * <p>
+ * Sessions with pending writes are those whose client doesn't read as fast as the server sends, so that frames
+ * queue up on the server.
+ */
+public class WebSocketMetrics implements WebSocketSessionListener, WebSocketMetricsMBean {
+    public static final String OBJECT_NAME_PREFIX = "com.haulmont.uberjar:type=WebSocket,name=";
+
+    protected final Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+    protected final LongAdder openedSessions = new LongAdder();
+    protected final LongAdder closedMessagesIn = new LongAdder();
+    protected final LongAdder closedMessagesOut = new LongAdder();
+    protected final LongAdder closedBytesIn = new LongAdder();
+    protected final LongAdder closedBytesOut = new LongAdder();
+
+    @Override
+    public void onSessionOpened(WebSocketSession session) {
+        if (sessions.add(session)) {
+            openedSessions.increment();
+        }
+    }
+
+    @Override
+    public void onSessionClosed(WebSocketSession session) {
+        if (sessions.remove(session)) {
+            AbstractWebSocketConnection connection = getConnection(session);
+            if (connection != null) {
+                closedMessagesIn.add(connection.getMessagesIn());
+                closedMessagesOut.add(connection.getMessagesOut());
+                closedBytesIn.add(connection.getBytesIn());
+                closedBytesOut.add(connection.getBytesOut());
+            }
+        }
+    }
+
+    @Override
+    public int getOpenSessions() {
+        return sessions.size();
+    }
+
+    @Override
+    public long getOpenedSessions() {
+        return openedSessions.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        long messages = closedMessagesIn.sum();
+        for (WebSocketSession session : sessions) {
+            AbstractWebSocketConnection connection = getConnection(session);
+            if (connection != null) {
+                messages += connection.getMessagesIn();
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public long getMessagesOut() {
+        long messages = closedMessagesOut.sum();
+        for (WebSocketSession session : sessions) {
+            AbstractWebSocketConnection connection = getConnection(session);
+            if (connection != null) {
+                messages += connection.getMessagesOut();
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public long getBytesIn() {
+        long bytes = closedBytesIn.sum();
+        for (WebSocketSession session : sessions) {
+            AbstractWebSocketConnection connection = getConnection(session);
+            if (connection != null) {
+                bytes += connection.getBytesIn();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getBytesOut() {
+        long bytes = closedBytesOut.sum();
+        for (WebSocketSession session : sessions) {
+            AbstractWebSocketConnection connection = getConnection(session);
+            if (connection != null) {
+                bytes += connection.getBytesOut();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public int getSessionsWithPendingWrites() {
+        int pending = 0;
+        for (WebSocketSession session : sessions) {
+            AbstractWebSocketConnection connection = getConnection(session);
+            EndPoint endPoint = connection != null ? connection.getEndPoint() : null;
+            if (endPoint instanceof AbstractEndPoint && ((AbstractEndPoint) endPoint).getWriteFlusher().isPending()) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    protected AbstractWebSocketConnection getConnection(WebSocketSession session) {
+        LogicalConnection connection = session.getConnection();
+        return connection instanceof AbstractWebSocketConnection ? (AbstractWebSocketConnection) connection : null;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.common.WebSocketRemoteEndpoint;
+import org.eclipse.jetty.websocket.common.WebSocketSession;
+import org.eclipse.jetty.websocket.common.WebSocketSessionListener;
+import org.eclipse.jetty.websocket.jsr356.server.ServerContainer;
+import org.eclipse.jetty.websocket.server.WebSocketServerFactory;
+
+/**
+ * WebSocket settings of an application context, e.g. for Vaadin push. Settings that aren't set keep
+ * the defaults of Jetty, and the application can still change them on start.
+ */
+public class WebSocketSettings {
+    protected static final String[] DEFLATE_EXTENSIONS = {"permessage-deflate", "deflate-frame", "x-webkit-deflate-frame"};
+
+    protected Integer maxTextMessageSize;
+    protected Integer maxBinaryMessageSize;
+    protected Integer inputBufferSize;
+    protected Integer idleTimeout;
+    protected Integer asyncSendTimeout;
+    protected Integer maxOutgoingFrames;
+    protected boolean deflateEnabled = true;
+
+    public Integer getMaxTextMessageSize() {
+        return maxTextMessageSize;
+    }
+
+    public void setMaxTextMessageSize(Integer maxTextMessageSize) {
+        this.maxTextMessageSize = maxTextMessageSize;
+    }
+
+    public Integer getMaxBinaryMessageSize() {
+        return maxBinaryMessageSize;
+    }
+
+    public void setMaxBinaryMessageSize(Integer maxBinaryMessageSize) {
+        this.maxBinaryMessageSize = maxBinaryMessageSize;
+    }
+
+    public Integer getInputBufferSize() {
+        return inputBufferSize;
+    }
+
+    public void setInputBufferSize(Integer inputBufferSize) {
+        this.inputBufferSize = inputBufferSize;
+    }
+
+    public Integer getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @param idleTimeout time in milliseconds after which an idle session is closed
+     */
+    public void setIdleTimeout(Integer idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public Integer getAsyncSendTimeout() {
+        return asyncSendTimeout;
+    }
+
+    /**
+     * @param asyncSendTimeout time in milliseconds after which an unfinished asynchronous send fails
+     */
+    public void setAsyncSendTimeout(Integer asyncSendTimeout) {
+        this.asyncSendTimeout = asyncSendTimeout;
+    }
+
+    public Integer getMaxOutgoingFrames() {
+        return maxOutgoingFrames;
+    }
+
+    /**
+     * @param maxOutgoingFrames max number of data frames queued for sending per session, further asynchronous
+     *                          sends fail until the client reads
+     */
+    public void setMaxOutgoingFrames(Integer maxOutgoingFrames) {
+        this.maxOutgoingFrames = maxOutgoingFrames;
+    }
+
+    public boolean isDeflateEnabled() {
+        return deflateEnabled;
+    }
+
+    public void setDeflateEnabled(boolean deflateEnabled) {
+        this.deflateEnabled = deflateEnabled;
+    }
+
+    public void apply(ServerContainer container) {
+        WebSocketServerFactory factory = container.getWebSocketServerFactory();
+        if (maxTextMessageSize != null) {
+            container.setDefaultMaxTextMessageBufferSize(maxTextMessageSize);
+        }
+        if (maxBinaryMessageSize != null) {
+            container.setDefaultMaxBinaryMessageBufferSize(maxBinaryMessageSize);
+        }
+        if (inputBufferSize != null) {
+            factory.getPolicy().setInputBufferSize(inputBufferSize);
+        }
+        if (idleTimeout != null) {
+            container.setDefaultMaxSessionIdleTimeout(idleTimeout);
+        }
+        if (asyncSendTimeout != null) {
+            container.setAsyncSendTimeout(asyncSendTimeout);
+        }
+        if (maxOutgoingFrames != null) {
+            WebSocketSessionListener listener = new WebSocketSessionListener() {
+                @Override
+                public void onSessionOpened(WebSocketSession session) {
+                    RemoteEndpoint remote = session.getRemote();
+                    if (remote instanceof WebSocketRemoteEndpoint) {
+                        ((WebSocketRemoteEndpoint) remote).setMaxOutgoingFrames(maxOutgoingFrames);
+                    }
+                }
+            };
+            // javax.websocket sessions notify the listeners of the container, Jetty API sessions those of the factory
+            container.addSessionListener(listener);
+            factory.addSessionListener(listener);
+        }
+        if (!deflateEnabled) {
+            disableDeflate(factory);
+        }
+    }
+
+    /**
+     * Jetty 9.4 deprecates the extension factory without a replacement, it is the only way to unregister extensions
+     * until Jetty 10.
+     */
+    @SuppressWarnings("deprecation")
+    protected void disableDeflate(WebSocketServerFactory factory) {
+        for (String extension : DEFLATE_EXTENSIONS) {
+            factory.getExtensionFactory().unregister(extension);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2008-2018 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.uberjar;
+
+import org.eclipse.jetty.server.session.SessionContext;
+import org.eclipse.jetty.server.session.SessionData;
+import org.eclipse.jetty.server.session.SessionDataStore;
+import org.eclipse.jetty.util.ClassLoadingObjectInputStream;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Write-behind wrapper of a {@link SessionDataStore}.
+ * <p>
+ * Stores only remember a snapshot of the latest data of a session, and a background thread writes the remembered
+ * sessions to the wrapped store in one batch per write period. The snapshot is taken while the session is locked by
+ * the caller, with attributes serialized to bytes, so requests changing the session do not race with the writer.
+ * A session saved several times within a period is written once, and request threads do not wait for I/O.
+ * Loads of a session waiting to be written return a copy of the remembered data. Expiration checks and stop write
+ * all remembered sessions first.
+ * <p>
+ * Other nodes don't see a session until it is written, so sessions shared between nodes need a synchronous store.
+ */
+public class WriteBehindSessionDataStore extends ContainerLifeCycle implements SessionDataStore {
+    protected final SessionDataStore delegate;
+    protected final long writePeriod;
+
+    protected final Map<String, PendingData> pending = new ConcurrentHashMap<>();
+    protected final Object writeLock = new Object();
+
+    protected SessionContext sessionContext;
+    protected ScheduledExecutorService writer;
+
+    /**
+     * @param writePeriod period of batched writes in milliseconds
+     */
+    public WriteBehindSessionDataStore(SessionDataStore delegate, long writePeriod) {
+        this.delegate = delegate;
+        this.writePeriod = writePeriod;
+        addBean(delegate, true);
+    }
+
+    public SessionDataStore getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void initialize(SessionContext context) throws Exception {
+        sessionContext = context;
+        delegate.initialize(context);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        String contextPath = sessionContext != null ? sessionContext.getCanonicalContextPath() : "";
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-writer-" + contextPath);
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(this::writePendingInContext, writePeriod, writePeriod, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        writer.shutdown();
+        writer.awaitTermination(writePeriod + TimeUnit.SECONDS.toMillis(10), TimeUnit.MILLISECONDS);
+        writePending();
+        super.doStop();
+    }
+
+    @Override
+    public void store(String id, SessionData data) throws Exception {
+        PendingData snapshot = new PendingData(data);
+        // the snapshot takes over the changes, the wrapped store decides whether to write it by its own flags
+        data.setDirty(false);
+        data.setLastSaved(System.currentTimeMillis());
+        // the wrapped store tells inserts from updates by the time of the last write, which is the earliest pending
+        pending.merge(id, snapshot, (previous, next) -> new PendingData(next, previous.dirty || next.dirty,
+                previous.lastSaved));
+    }
+
+    @Override
+    public SessionData load(String id) throws Exception {
+        PendingData pendingData = pending.get(id);
+        if (pendingData != null) {
+            SessionData data = pendingData.toSessionData();
+            data.setDirty(false);
+            return data;
+        }
+        return delegate.load(id);
+    }
+
+    @Override
+    public boolean delete(String id) throws Exception {
+        synchronized (writeLock) {
+            boolean deleted = pending.remove(id) != null;
+            return delegate.delete(id) || deleted;
+        }
+    }
+
+    @Override
+    public boolean exists(String id) throws Exception {
+        PendingData pendingData = pending.get(id);
+        if (pendingData != null) {
+            long expiry = pendingData.expiry;
+            return expiry <= 0 || expiry > System.currentTimeMillis();
+        }
+        return delegate.exists(id);
+    }
+
+    @Override
+    public Set<String> getExpired(Set<String> candidates) {
+        writePendingInContext();
+        return delegate.getExpired(candidates);
+    }
+
+    @Override
+    public SessionData newSessionData(String id, long created, long accessed, long lastAccessed, long maxInactiveMs) {
+        return delegate.newSessionData(id, created, accessed, lastAccessed, maxInactiveMs);
+    }
+
+    @Override
+    public boolean isPassivating() {
+        return delegate.isPassivating();
+    }
+
+    /**
+     * @return number of sessions waiting to be written
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    protected void writePendingInContext() {
+        if (sessionContext != null) {
+            // attribute classes are resolved through the context class loader
+            sessionContext.run(this::writePending);
+        } else {
+            writePending();
+        }
+    }
+
+    protected void writePending() {
+        for (Map.Entry<String, PendingData> entry : pending.entrySet()) {
+            String id = entry.getKey();
+            PendingData pendingData = entry.getValue();
+            synchronized (writeLock) {
+                // a concurrent delete or a newer store replaces the entry
+                if (pending.get(id) != pendingData) {
+                    continue;
+                }
+                try {
+                    delegate.store(id, pendingData.toSessionData());
+                } catch (Exception e) {
+                    System.out.println(format("Unable to write session %s: %s", id, e));
+                }
+                // stays visible to loads until written
+                pending.remove(id, pendingData);
+            }
+        }
+    }
+
+    /**
+     * Snapshot of session data with serialized attributes.
+     */
+    protected static class PendingData {
+        protected final String id;
+        protected final String contextPath;
+        protected final String vhost;
+        protected final String lastNode;
+        protected final long created;
+        protected final long accessed;
+        protected final long lastAccessed;
+        protected final long maxInactiveMs;
+        protected final long cookieSet;
+        protected final long expiry;
+        protected final long lastSaved;
+        protected final boolean dirty;
+        protected final byte[] attributes;
+
+        protected PendingData(SessionData data) throws IOException {
+            id = data.getId();
+            contextPath = data.getContextPath();
+            vhost = data.getVhost();
+            lastNode = data.getLastNode();
+            created = data.getCreated();
+            accessed = data.getAccessed();
+            lastAccessed = data.getLastAccessed();
+            maxInactiveMs = data.getMaxInactiveMs();
+            cookieSet = data.getCookieSet();
+            expiry = data.getExpiry();
+            lastSaved = data.getLastSaved();
+            dirty = data.isDirty();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                SessionData.serializeAttributes(data, out);
+            }
+            attributes = bytes.toByteArray();
+        }
+
+        protected PendingData(PendingData data, boolean dirty, long lastSaved) {
+            id = data.id;
+            contextPath = data.contextPath;
+            vhost = data.vhost;
+            lastNode = data.lastNode;
+            created = data.created;
+            accessed = data.accessed;
+            lastAccessed = data.lastAccessed;
+            maxInactiveMs = data.maxInactiveMs;
+            cookieSet = data.cookieSet;
+            expiry = data.expiry;
+            attributes = data.attributes;
+            this.dirty = dirty;
+            this.lastSaved = lastSaved;
+        }
+
+        /**
+         * @return new session data with attributes deserialized by the context class loader of the current thread
+         */
+        protected SessionData toSessionData() throws IOException, ClassNotFoundException {
+            SessionData data = new SessionData(id, contextPath, vhost, created, accessed, lastAccessed, maxInactiveMs,
+                    Collections.emptyMap());
+            data.setLastNode(lastNode);
+            data.setCookieSet(cookieSet);
+            data.setExpiry(expiry);
+            try (ClassLoadingObjectInputStream in = new ClassLoadingObjectInputStream(new ByteArrayInputStream(attributes))) {
+                SessionData.deserializeAttributes(data, in);
+            }
+            data.setLastSaved(lastSaved);
+            data.setDirty(dirty);
+            return data;
+        }
+    }
+}